@@ -0,0 +1,61 @@
+package com.nautilus.fxmap.geo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeoBoundaryBenchmark {
+
+    private static final int BOXES = 4096;
+
+    private GeoBoundary viewport;
+    private GeoBoundary[] boxes;
+    private GeoPoint[] points;
+    private int index;
+
+    @Setup
+    public void setup() {
+        viewport = new GeoBoundary(102.14, 109.46, 8.18, 23.39);
+        Random random = new Random(42);
+        boxes = new GeoBoundary[BOXES];
+        points = new GeoPoint[BOXES];
+        for(int i = 0; i < BOXES; i++) {
+            double minX = 100.0 + random.nextDouble() * 12.0;
+            double minY = 6.0 + random.nextDouble() * 20.0;
+            boxes[i] = new GeoBoundary(minX, minX + random.nextDouble(), minY, minY + random.nextDouble());
+            points[i] = new GeoPoint(minY, minX);
+        }
+    }
+
+    @Benchmark
+    public boolean isContain() {
+        return viewport.isContain(boxes[index++ & (BOXES - 1)]);
+    }
+
+    @Benchmark
+    public GeoPoint getCenter() {
+        return boxes[index++ & (BOXES - 1)].getCenter();
+    }
+
+    @Benchmark
+    public boolean geoPointEquals() {
+        int i = index++;
+        return points[i & (BOXES - 1)].equals(points[(i + 1) & (BOXES - 1)]);
+    }
+}
@@ -0,0 +1,111 @@
+package com.nautilus.fxmap.geo;
+
+import com.nautilus.fxmap.geo.impl.DefaultMapProjection;
+import javafx.geometry.Point2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares projecting an overlay one {@link Point2D} at a time against the batch API.
+ * Run with the gc profiler (the jmh profile does this) and compare gc.alloc.rate.norm:
+ * the batch variants should report ~0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectionBatchBenchmark {
+
+    @Param({"false", "true"})
+    public boolean mercator;
+
+    @Param({"200000"})
+    public int points;
+
+    private DefaultMapProjection projection;
+    private double[] latLon;
+    private double[] xy;
+    private float[] latLonF;
+    private float[] xyF;
+
+    @Setup
+    public void setup() {
+        projection = new DefaultMapProjection(1920, 1080);
+        projection.setScreenSize(1920, 1080);
+        projection.setBounds(new GeoBoundary(102.14, 109.46, 8.18, 23.39));
+        projection.setUseMercatorProjection(mercator);
+
+        Random random = new Random(42);
+        latLon = new double[points * 2];
+        latLonF = new float[points * 2];
+        for(int i = 0; i < points; i++) {
+            double lat = 8.18 + random.nextDouble() * 15.21;
+            double lon = 102.14 + random.nextDouble() * 7.32;
+            if(mercator) {
+                lat = Math.toRadians(lat);
+                lon = Math.toRadians(lon);
+            }
+            latLon[2 * i] = lat;
+            latLon[2 * i + 1] = lon;
+            latLonF[2 * i] = (float) lat;
+            latLonF[2 * i + 1] = (float) lon;
+        }
+        xy = new double[points * 2];
+        xyF = new float[points * 2];
+        projection.locationToXY(latLon, 0, xy, 0, points);
+        projection.locationToXY(latLonF, 0, xyF, 0, points);
+    }
+
+    @Benchmark
+    public void locationToXYPerPoint(Blackhole bh) {
+        for(int i = 0; i < points; i++) {
+            bh.consume(projection.locationToXY(latLon[2 * i], latLon[2 * i + 1]));
+        }
+    }
+
+    @Benchmark
+    public double[] locationToXYBatch() {
+        projection.locationToXY(latLon, 0, xy, 0, points);
+        return xy;
+    }
+
+    @Benchmark
+    public float[] locationToXYBatchFloat() {
+        projection.locationToXY(latLonF, 0, xyF, 0, points);
+        return xyF;
+    }
+
+    @Benchmark
+    public void xyToLocationPerPoint(Blackhole bh) {
+        for(int i = 0; i < points; i++) {
+            bh.consume(projection.xyToLocation(xy[2 * i], xy[2 * i + 1]));
+        }
+    }
+
+    @Benchmark
+    public double[] xyToLocationBatch() {
+        projection.xyToLocation(xy, 0, latLon, 0, points);
+        return latLon;
+    }
+
+    @Benchmark
+    public float[] xyToLocationBatchFloat() {
+        projection.xyToLocation(xyF, 0, latLonF, 0, points);
+        return latLonF;
+    }
+}
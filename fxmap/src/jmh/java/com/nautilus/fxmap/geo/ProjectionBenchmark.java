@@ -0,0 +1,93 @@
+package com.nautilus.fxmap.geo;
+
+import com.nautilus.fxmap.geo.impl.DefaultMapProjection;
+import com.nautilus.fxmap.geo.impl.WebMercatorProjection;
+import javafx.geometry.Point2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single point projection in both directions for every projection path.
+ * Nothing here touches a WebView, the JS bridge just queues the scripts it is given.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectionBenchmark {
+
+    private static final int POINTS = 4096;
+
+    public enum Kind { LINEAR, MERCATOR, WEB_MERCATOR }
+
+    @Param({"LINEAR", "MERCATOR", "WEB_MERCATOR"})
+    public Kind kind;
+
+    private MapProjection projection;
+    private double[] lats;
+    private double[] lons;
+    private double[] xs;
+    private double[] ys;
+    private int index;
+
+    @Setup
+    public void setup() {
+        projection = BenchmarkProjections.create(kind);
+        Random random = new Random(42);
+        lats = new double[POINTS];
+        lons = new double[POINTS];
+        xs = new double[POINTS];
+        ys = new double[POINTS];
+        for(int i = 0; i < POINTS; i++) {
+            double lat = 8.18 + random.nextDouble() * 15.21;
+            double lon = 102.14 + random.nextDouble() * 7.32;
+            lats[i] = kind == Kind.MERCATOR ? Math.toRadians(lat) : lat;
+            lons[i] = kind == Kind.MERCATOR ? Math.toRadians(lon) : lon;
+            xs[i] = random.nextDouble() * 1920;
+            ys[i] = random.nextDouble() * 1080;
+        }
+    }
+
+    @Benchmark
+    public Point2D locationToXY() {
+        int i = index++ & (POINTS - 1);
+        return projection.locationToXY(lats[i], lons[i]);
+    }
+
+    @Benchmark
+    public Point2D xyToLocation() {
+        int i = index++ & (POINTS - 1);
+        return projection.xyToLocation(xs[i], ys[i]);
+    }
+
+    static final class BenchmarkProjections {
+        private BenchmarkProjections() { }
+
+        static MapProjection create(Kind kind) {
+            if(kind == Kind.WEB_MERCATOR) {
+                WebMercatorProjection projection = new WebMercatorProjection(15.8, 105.8, 7.0);
+                projection.setScreenSize(1920, 1080);
+                return projection;
+            }
+            DefaultMapProjection projection = new DefaultMapProjection(1920, 1080);
+            projection.setScreenSize(1920, 1080);
+            projection.setBounds(new GeoBoundary(102.14, 109.46, 8.18, 23.39));
+            projection.setUseMercatorProjection(kind == Kind.MERCATOR);
+            return projection;
+        }
+    }
+}
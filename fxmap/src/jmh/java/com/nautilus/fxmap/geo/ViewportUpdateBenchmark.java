@@ -0,0 +1,116 @@
+package com.nautilus.fxmap.geo;
+
+import com.nautilus.fxmap.geo.impl.DefaultMapProjection;
+import javafx.geometry.Point2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The viewport update path of {@link DefaultMapProjection}: setBounds / setScreenSize alone, and a pan
+ * (setBounds) racing with threads that project against the same instance, point by point or a batch per snapshot.
+ * Scaling across cores can be checked by running the {@link #batchPerThread} benchmark with -t 1, 2, 4, ...
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ViewportUpdateBenchmark {
+
+    private DefaultMapProjection projection;
+    private GeoBoundary[] bounds;
+    private int index;
+
+    @Setup
+    public void setup() {
+        projection = new DefaultMapProjection(1920, 1080);
+        projection.setScreenSize(1920, 1080);
+        bounds = new GeoBoundary[64];
+        for(int i = 0; i < bounds.length; i++) {
+            double shift = i * 0.01;
+            bounds[i] = new GeoBoundary(102.14 + shift, 109.46 + shift, 8.18 + shift, 23.39 + shift);
+        }
+        projection.setBounds(bounds[0]);
+    }
+
+    @Benchmark
+    @Group("setBounds")
+    public void setBounds() {
+        projection.setBounds(bounds[index++ & 63]);
+    }
+
+    @Benchmark
+    @Group("setScreenSize")
+    public void setScreenSize() {
+        int i = index++ & 63;
+        projection.setScreenSize(1920 - i, 1080 - i);
+    }
+
+    @Benchmark
+    @Group("panWhileProjecting")
+    @GroupThreads(1)
+    public void pan() {
+        projection.setBounds(bounds[index++ & 63]);
+    }
+
+    @Benchmark
+    @Group("panWhileProjecting")
+    @GroupThreads(3)
+    public Point2D project() {
+        return projection.locationToXY(15.8, 105.8);
+    }
+
+    @Benchmark
+    @Group("panWhileBatchProjecting")
+    @GroupThreads(1)
+    public void panBatch() {
+        projection.setBounds(bounds[index++ & 63]);
+    }
+
+    @Benchmark
+    @Group("panWhileBatchProjecting")
+    @GroupThreads(3)
+    public double[] projectBatch(Batch batch) {
+        projection.getViewport().locationToXY(batch.latLon, 0, batch.xy, 0, Batch.POINTS);
+        return batch.xy;
+    }
+
+    @Benchmark
+    @Group("batchPerThread")
+    public double[] batchPerThread(Batch batch) {
+        projection.getViewport().locationToXY(batch.latLon, 0, batch.xy, 0, Batch.POINTS);
+        return batch.xy;
+    }
+
+    @State(Scope.Thread)
+    public static class Batch {
+        static final int POINTS = 10000;
+
+        final double[] latLon = new double[POINTS * 2];
+        final double[] xy = new double[POINTS * 2];
+
+        @Setup
+        public void setup() {
+            Random random = new Random(42);
+            for(int i = 0; i < POINTS; i++) {
+                latLon[2 * i] = 8.18 + random.nextDouble() * 15.21;
+                latLon[2 * i + 1] = 102.14 + random.nextDouble() * 7.32;
+            }
+        }
+    }
+}
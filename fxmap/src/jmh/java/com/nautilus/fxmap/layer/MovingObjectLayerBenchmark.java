@@ -0,0 +1,75 @@
+package com.nautilus.fxmap.layer;
+
+import com.nautilus.fxmap.geo.GeoBoundary;
+import com.nautilus.fxmap.geo.impl.DefaultMapProjection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame of the {@link MovingObjectLayer}: every object moves, is published, swapped in, culled, projected and
+ * blitted into the pixel buffer. A 60 fps budget is 16.7 ms/op; gc.alloc.rate.norm should be ~0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MovingObjectLayerBenchmark {
+
+    @Param({"10000", "100000"})
+    public int objects;
+
+    private DefaultMapProjection projection;
+    private MovingObjectLayer layer;
+    private double[] lat;
+    private double[] lon;
+    private Random random;
+
+    @Setup
+    public void setup() {
+        projection = new DefaultMapProjection(1920, 1080);
+        projection.setScreenSize(1920, 1080);
+        projection.setBounds(new GeoBoundary(102.14, 109.46, 8.18, 23.39));
+        layer = new MovingObjectLayer(objects, null);
+        layer.setSize(1920, 1080);
+        random = new Random(42);
+        lat = new double[objects];
+        lon = new double[objects];
+        for(int i = 0; i < objects; i++) {
+            // a third of them outside the viewport
+            lat[i] = 8.18 + random.nextDouble() * 15.21 * 1.5;
+            lon[i] = 102.14 + random.nextDouble() * 7.32;
+            layer.put(i, lat[i], lon[i], 0f, 0);
+        }
+        layer.publish();
+    }
+
+    @Benchmark
+    public int frame() {
+        layer.beginUpdate();
+        try {
+            for(int i = 0; i < objects; i++) {
+                lat[i] += 0.0001;
+                layer.put(i, lat[i], lon[i], i % 360, 0);
+            }
+        } finally {
+            layer.endUpdate();
+        }
+        layer.publish();
+        layer.renderPixels(projection.getViewport());
+        return layer.getVisibleCount();
+    }
+}
@@ -0,0 +1,68 @@
+package com.nautilus.fxmap.layer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Three feed threads offer updates for 10k ids while one thread drains the {@link PositionFeed} into a
+ * {@link MovingObjectLayer}, like the render pulse. Compare offer throughput with the drop counter: a feed
+ * that the drain can't keep up with shows up as drops, not as blocked producers. gc.alloc.rate.norm should be
+ * ~0 B/op.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PositionFeedBenchmark {
+
+    private PositionFeed feed;
+    private MovingObjectLayer layer;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Producer {
+        public long dropped;
+        long next;
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        feed = new PositionFeed(1 << 16);
+        layer = new MovingObjectLayer(10_000, null);
+    }
+
+    @Benchmark
+    @Group("feed")
+    @GroupThreads(3)
+    public boolean offer(Producer p) {
+        long id = p.next++ % 10_000;
+        boolean queued = feed.offer(id, 10.0 + id * 1e-4, 105.0 + id * 1e-4, id % 360, 0);
+        if(!queued) {
+            p.dropped++;
+        }
+        return queued;
+    }
+
+    @Benchmark
+    @Group("feed")
+    @GroupThreads(1)
+    public int drain() {
+        return feed.drainTo(layer);
+    }
+}
@@ -0,0 +1,81 @@
+package com.nautilus.fxmap.map;
+
+import javafx.application.Platform;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the camera of osm.html N times with the camera API and N times with the legacy panTo script, and prints
+ * the page-to-Java upcalls per move and the round trip latency of both. Fails if the camera API needs more than
+ * one upcall per move. Needs a display (or a headless Glass platform) since it opens a WebView:
+ *
+ *     mvn -Pjmh compile exec:exec -Djmh.main=com.nautilus.fxmap.map.CameraLatencyCheck
+ *         -Djmh.prof= -Djmh.args=200
+ */
+public final class CameraLatencyCheck {
+
+    private CameraLatencyCheck() { }
+
+    public static void main(String[] args) throws Exception {
+        final int moves = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        JSMapBridge bridge = WebMapHarness.start();
+        try {
+            Result legacy = run(bridge, false, moves);
+            Result api = run(bridge, true, moves);
+            System.out.println("legacy:     " + legacy);
+            System.out.println("camera API: " + api);
+            if(api.upcallsPerMove() > 1.05) {
+                System.out.println("FAIL: more than one upcall per camera move");
+                System.exit(1);
+            }
+        } finally {
+            Platform.exit();
+        }
+    }
+
+    private static Result run(JSMapBridge bridge, boolean cameraApi, int moves) throws Exception {
+        AsyncMapBridge async = bridge.async();
+        long upcalls = async.call(b -> {
+            b.setCameraApiEnabled(cameraApi);
+            b.resetCameraLatency();
+            return b.getChangeEventsReceived();
+        }).get(5, TimeUnit.SECONDS);
+        final long start = System.nanoTime();
+        for(int i = 0; i < moves; i++) {
+            async.setCamera(10.0 + (i % 50) * 0.01, 106.0 + (i % 50) * 0.01, Double.NaN, Double.NaN)
+                    .get(5, TimeUnit.SECONDS);
+        }
+        final long elapsed = System.nanoTime() - start;
+        // a trailing moveend would come within a few frames
+        Thread.sleep(500);
+        return async.call(b -> new Result(moves, b.getChangeEventsReceived() - upcalls,
+                b.getMeanCameraLatencyMillis(), b.getMaxCameraLatencyMillis(), elapsed / 1e6 / moves))
+                .get(5, TimeUnit.SECONDS);
+    }
+
+    private static final class Result {
+        final int moves;
+        final long upcalls;
+        final double meanMillis;
+        final double maxMillis;
+        final double wallMillisPerMove;
+
+        Result(int moves, long upcalls, double meanMillis, double maxMillis, double wallMillisPerMove) {
+            this.moves = moves;
+            this.upcalls = upcalls;
+            this.meanMillis = meanMillis;
+            this.maxMillis = maxMillis;
+            this.wallMillisPerMove = wallMillisPerMove;
+        }
+
+        double upcallsPerMove() {
+            return (double) upcalls / moves;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("moves = %d, upcalls/move = %.2f, round trip mean = %.3f ms, max = %.3f ms, "
+                    + "wall/move = %.3f ms", moves, upcallsPerMove(), meanMillis, maxMillis, wallMillisPerMove);
+        }
+    }
+}
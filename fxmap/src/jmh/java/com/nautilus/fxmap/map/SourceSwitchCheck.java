@@ -0,0 +1,91 @@
+package com.nautilus.fxmap.map;
+
+import com.nautilus.fxmap.geo.MapSource;
+import javafx.application.Platform;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Switches the map source of osm.html N times between OSM and no tiles, which osm.html swaps in the page, and checks
+ * that no switch loaded a page, the engine keeps one load listener and each switch takes under 100 ms. Then switches
+ * to GOOGLE and back a few times, which loads webmap.html and osm.html, and checks the listener count stays at one.
+ * Needs a display (or a headless Glass platform) since it opens a WebView:
+ *
+ *     mvn -Pjmh compile exec:exec -Djmh.main=com.nautilus.fxmap.map.SourceSwitchCheck -Djmh.prof= -Djmh.args=500
+ */
+public final class SourceSwitchCheck {
+
+    private static final double MAX_SWITCH_MILLIS = 100.0;
+    private static final int PAGE_LOADS = 10;
+
+    private SourceSwitchCheck() { }
+
+    public static void main(String[] args) throws Exception {
+        final int switches = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        JSMapBridge bridge = WebMapHarness.start();
+        try {
+            AsyncMapBridge async = bridge.async();
+            final long swaps = async.call(JSMapBridge::getSourceSwapCount).get(5, TimeUnit.SECONDS);
+            int maxListeners = 0;
+            double maxMillis = 0.0;
+            double totalMillis = 0.0;
+            for(int i = 0; i < switches; i++) {
+                MapSource source = i % 2 == 0 ? MapSource.NONE : MapSource.OSM;
+                double[] sample = async.call(b -> {
+                    b.switchMapSource(source);
+                    return new double[] { b.getLastSourceSwitchMillis(), b.getLoadListenerCount() };
+                }).get(5, TimeUnit.SECONDS);
+                maxMillis = Math.max(maxMillis, sample[0]);
+                totalMillis += sample[0];
+                maxListeners = Math.max(maxListeners, (int) sample[1]);
+            }
+            final long swapped = async.call(JSMapBridge::getSourceSwapCount).get(5, TimeUnit.SECONDS) - swaps;
+            System.out.println(String.format("in-page switches = %d, swapped = %d, load listeners max = %d, "
+                    + "switch mean = %.3f ms, max = %.3f ms", switches, swapped, maxListeners,
+                    totalMillis / switches, maxMillis));
+
+            for(int i = 0; i < 2 * PAGE_LOADS; i++) {
+                MapSource source = i % 2 == 0 ? MapSource.GOOGLE : MapSource.OSM;
+                async.call(b -> {
+                    b.switchMapSource(source);
+                    return null;
+                }).get(5, TimeUnit.SECONDS);
+                awaitPage(async);
+                maxListeners = Math.max(maxListeners,
+                        async.call(JSMapBridge::getLoadListenerCount).get(5, TimeUnit.SECONDS));
+            }
+            final int listeners = async.call(JSMapBridge::getLoadListenerCount).get(5, TimeUnit.SECONDS);
+            System.out.println("page loads = " + 2 * PAGE_LOADS + ", load listeners = " + listeners
+                    + " (max " + maxListeners + ")");
+
+            boolean failed = false;
+            if(swapped != switches) {
+                System.out.println("FAIL: " + (switches - swapped) + " in-page switches loaded a page");
+                failed = true;
+            }
+            if(listeners != 1 || maxListeners != 1) {
+                System.out.println("FAIL: load listener count grew with the switches");
+                failed = true;
+            }
+            if(maxMillis >= MAX_SWITCH_MILLIS) {
+                System.out.println("FAIL: a switch took " + maxMillis + " ms");
+                failed = true;
+            }
+            if(failed) {
+                System.exit(1);
+            }
+        } finally {
+            Platform.exit();
+        }
+    }
+
+    private static void awaitPage(AsyncMapBridge async) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while(!async.call(b -> b.commands.isReady()).get(5, TimeUnit.SECONDS)) {
+            if(System.nanoTime() > deadline) {
+                throw new IllegalStateException("Page didn't load within 30 s");
+            }
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.nautilus.fxmap.map;
+
+import com.nautilus.fxmap.map.impl.DefaultJSMapBridge;
+import com.nautilus.fxmap.view.WebMapEventHandler;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.web.WebView;
+import javafx.stage.Stage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the FX toolkit and loads osm.html into a shown WebView for the checks that need a real page.
+ */
+final class WebMapHarness {
+
+    private WebMapHarness() { }
+
+    static JSMapBridge start() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        started.await();
+        CompletableFuture<JSMapBridge> ready = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            WebView view = new WebView();
+            Stage stage = new Stage();
+            stage.setScene(new Scene(view, 1024, 768));
+            stage.show();
+            DefaultJSMapBridge bridge = new DefaultJSMapBridge();
+            bridge.setWebEngine(view.getEngine());
+            bridge.setEventHandler(new WebMapEventHandler() {
+                @Override
+                public void onWebMapInitialized() {
+                    ready.complete(bridge);
+                }
+
+                @Override
+                public void onWebMapPropertiesChanged() { }
+            });
+            bridge.initWebEngine();
+        });
+        return ready.get(60, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,117 @@
+package com.nautilus.fxmap.tile;
+
+import com.nautilus.fxmap.geo.impl.WebMercatorProjection;
+import com.nautilus.fxmap.tile.cache.ImageTileCache;
+import com.nautilus.fxmap.tile.cache.OffHeapTileCache;
+import com.nautilus.fxmap.tile.cache.TileCache;
+import javafx.scene.image.Image;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pans back and forth over the same area and looks up every visible tile, the way {@link TileRenderer} does.
+ * The decodes and providerLoads counters stay at 0 once the area is cached: repeated pans never decode again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dprism.order=sw", "-Djava.awt.headless=true"})
+public class TileCacheBenchmark {
+
+    private static final int STEPS = 64;
+
+    private TileCache cache;
+    private WebMercatorProjection projection;
+    private int step;
+
+    @Setup
+    public void setup() throws IOException {
+        cache = new TileCache(new GeneratedTileProvider(),
+                new ImageTileCache(256L * 1024 * 1024), new OffHeapTileCache(64L * 1024 * 1024), null);
+        projection = new WebMercatorProjection(21.0285, 105.8542, 14.0);
+        projection.setScreenSize(1920, 1080);
+    }
+
+    @Benchmark
+    public void panOverSameArea(Counters counters, Blackhole bh) throws IOException {
+        long decodes = cache.getDecodeCount();
+        long loads = cache.getProviderLoadCount();
+        // 64 steps of 40 pixels to the east, then back
+        int i = step++ % (2 * STEPS);
+        projection.translateCenterInPixel(i < STEPS ? -40 : 40, 0);
+        TileRange range = TileRange.of(projection.getViewport(), 0, 19);
+        for(int y = range.getMinY(); y <= range.getMaxY(); y++) {
+            for(int x = range.getMinX(); x <= range.getMaxX(); x++) {
+                Image image = cache.getImage(TileKey.pack(range.getZoom(), range.wrapX(x), y));
+                bh.consume(image);
+            }
+        }
+        counters.decodes += cache.getDecodeCount() - decodes;
+        counters.providerLoads += cache.getProviderLoadCount() - loads;
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long decodes;
+        public long providerLoads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            decodes = 0;
+            providerLoads = 0;
+        }
+    }
+
+    /**
+     * Renders a small PNG per tile the first time it is asked for, standing in for a network tile server.
+     */
+    static final class GeneratedTileProvider implements TileProvider {
+        private final ConcurrentHashMap<Long, byte[]> encoded = new ConcurrentHashMap<>();
+
+        @Override
+        public ByteBuffer getTile(int zoom, int x, int y) {
+            return ByteBuffer.wrap(encoded.computeIfAbsent(TileKey.pack(zoom, x, y), k -> encode(x, y)));
+        }
+
+        private static byte[] encode(int x, int y) {
+            BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            g.setColor(new Color((x * 37) & 0xFF, (y * 91) & 0xFF, 160));
+            g.fillRect(0, 0, 256, 256);
+            g.setColor(Color.WHITE);
+            g.drawString(x + "/" + y, 100, 128);
+            g.dispose();
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(image, "png", out);
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
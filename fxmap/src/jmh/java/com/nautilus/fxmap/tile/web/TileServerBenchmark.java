@@ -0,0 +1,121 @@
+package com.nautilus.fxmap.tile.web;
+
+import com.nautilus.fxmap.tile.TileProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of {@link TileServer}: concurrent clients fetch random tiles of one zoom level over keep-alive
+ * connections. Throughput mode gives the requests per second, sample mode the latency percentiles (p0.99).
+ *
+ * Run only this one with {@code mvn -Pjmh -Djmh.args=TileServerBenchmark exec:exec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class TileServerBenchmark {
+
+    private static final int ZOOM = 6;
+
+    @Param({"16384"})
+    public int tileBytes;
+
+    private TileServer server;
+    private String base;
+    private String etag;
+
+    @Setup
+    public void setup() throws IOException {
+        TileServer.enableNoDelay();
+        server = new TileServer(new MemoryTileProvider(tileBytes));
+        server.start();
+        base = "http://127.0.0.1:" + server.getPort() + "/" + ZOOM + "/";
+        HttpURLConnection c = (HttpURLConnection) new URL(base + "1/1.png").openConnection();
+        etag = c.getHeaderField("ETag");
+        c.getInputStream().close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println(server);
+        server.stop();
+    }
+
+    @Benchmark
+    public long fetchTile() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return fetch(base + random.nextInt(1 << ZOOM) + "/" + random.nextInt(1 << ZOOM) + ".png", null);
+    }
+
+    /**
+     * Revalidation the way a browser does it once the tile is cached: answered with 304 and no body.
+     */
+    @Benchmark
+    public long revalidateTile() throws IOException {
+        return fetch(base + "1/1.png", etag);
+    }
+
+    private static long fetch(String url, String etag) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        if(etag != null) {
+            c.setRequestProperty("If-None-Match", etag);
+        }
+        int status = c.getResponseCode();
+        long read = 0;
+        if(status < 400) {
+            // drained and closed so the connection goes back to the keep-alive pool, also for a 304
+            try (InputStream in = c.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while((n = in.read(buffer)) > 0) {
+                    read += n;
+                }
+            }
+        }
+        return status + read;
+    }
+
+    private static final class MemoryTileProvider implements TileProvider {
+        // every tile has the same bytes, good enough for the server
+        private final ByteBuffer tile;
+
+        MemoryTileProvider(int size) {
+            byte[] bytes = new byte[size];
+            new Random(42).nextBytes(bytes);
+            bytes[0] = (byte) 0x89;
+            bytes[1] = 'P';
+            bytes[2] = 'N';
+            bytes[3] = 'G';
+            tile = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+
+        @Override
+        public ByteBuffer getTile(int zoom, int x, int y) {
+            return tile.duplicate();
+        }
+    }
+}
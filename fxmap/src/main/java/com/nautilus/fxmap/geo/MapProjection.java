@@ -1,5 +1,6 @@
 package com.nautilus.fxmap.geo;
 
+import com.nautilus.fxmap.map.JSMapBridge;
 import com.nautilus.fxmap.view.WebMapEventHandler;
 import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
@@ -57,6 +58,52 @@ public abstract class MapProjection implements WebMapEventHandler {
      */
     public abstract Point2D locationToXY(double lat, double lon);
     public abstract Point2D xyToLocation(double x, double y);
+
+    /**
+     * @return the current viewport. The snapshot never changes, later zooms and pans publish a new one.
+     *         Projections that don't keep a snapshot get one whose bounds, zoom and size are copied now but whose
+     *         points are projected through {@link #locationToXY(double, double)} one by one; override this to make
+     *         the transform atomic as well.
+     */
+    public Viewport getViewport() {
+        return new PointwiseViewport(this);
+    }
+
+    /**
+     * Projects {@code count} points stored as interleaved (lat, lon) pairs in {@code latLon}
+     * starting at {@code srcOffset} into interleaved (x, y) pairs in {@code xy} starting at {@code dstOffset}.
+     * No object is created per point. The whole batch is projected against one {@link #getViewport() snapshot}.
+     */
+    public void locationToXY(double[] latLon, int srcOffset, double[] xy, int dstOffset, int count) {
+        getViewport().locationToXY(latLon, srcOffset, xy, dstOffset, count);
+    }
+
+    public void locationToXY(float[] latLon, int srcOffset, float[] xy, int dstOffset, int count) {
+        getViewport().locationToXY(latLon, srcOffset, xy, dstOffset, count);
+    }
+
+    /**
+     * Inverse of {@link #locationToXY(double[], int, double[], int, int)}: reads interleaved (x, y) pairs
+     * and writes interleaved (lat, lon) pairs, so the output can be fed back to the forward projection.
+     * Note that this is the reverse order of the {@link Point2D} returned by {@link #xyToLocation(double, double)}.
+     */
+    public void xyToLocation(double[] xy, int srcOffset, double[] latLon, int dstOffset, int count) {
+        getViewport().xyToLocation(xy, srcOffset, latLon, dstOffset, count);
+    }
+
+    public void xyToLocation(float[] xy, int srcOffset, float[] latLon, int dstOffset, int count) {
+        getViewport().xyToLocation(xy, srcOffset, latLon, dstOffset, count);
+    }
+
+    protected static void checkBatchBounds(int srcLength, int srcOffset, int dstLength, int dstOffset, int count) {
+        if(count < 0 || srcOffset < 0 || dstOffset < 0
+                || srcOffset + 2L * count > srcLength
+                || dstOffset + 2L * count > dstLength) {
+            throw new IndexOutOfBoundsException("Batch of " + count + " points does not fit: src["
+                    + srcOffset + ", " + srcLength + "), dst[" + dstOffset + ", " + dstLength + ")");
+        }
+    }
+
     public Point2D lineEquation(double x1, double y1, double x2, double y2) {
         double a = (y2 - y1)/(x2 - x1);
         double b = y1 - a * x1;
@@ -67,6 +114,13 @@ public abstract class MapProjection implements WebMapEventHandler {
 
     public abstract MapSource switchMapSource(MapSource target);
 
+    /**
+     * @return the bridge to the web map, null if the projection doesn't have one
+     */
+    public JSMapBridge getJSMapBridge() {
+        return null;
+    }
+
     public abstract void zoomIn();
     public abstract void zoomOut();
 
@@ -89,4 +143,94 @@ public abstract class MapProjection implements WebMapEventHandler {
     public double centerScreenY() {
         return (screenArea.getMinY() + screenArea.getMaxY()) / 2.0;
     }
+
+    /**
+     * Fallback {@link Viewport} of projections without their own snapshot.
+     */
+    private static final class PointwiseViewport implements Viewport {
+        private final MapProjection projection;
+        private final GeoBoundary bounds;
+        private final double zoomLevel;
+        private final double width;
+        private final double height;
+
+        PointwiseViewport(MapProjection projection) {
+            this.projection = projection;
+            this.bounds = projection.getBounds();
+            this.zoomLevel = projection.getZoomLevel();
+            this.width = projection.screenArea != null ? projection.screenArea.getWidth() : 0.0;
+            this.height = projection.screenArea != null ? projection.screenArea.getHeight() : 0.0;
+        }
+
+        @Override
+        public double getZoomLevel() {
+            return zoomLevel;
+        }
+
+        @Override
+        public double getWidth() {
+            return width;
+        }
+
+        @Override
+        public double getHeight() {
+            return height;
+        }
+
+        @Override
+        public GeoBoundary getBounds() {
+            return new GeoBoundary(bounds);
+        }
+
+        @Override
+        public Point2D locationToXY(double lat, double lon) {
+            return projection.locationToXY(lat, lon);
+        }
+
+        @Override
+        public Point2D xyToLocation(double x, double y) {
+            return projection.xyToLocation(x, y);
+        }
+
+        @Override
+        public void locationToXY(double[] latLon, int srcOffset, double[] xy, int dstOffset, int count) {
+            checkBatchBounds(latLon.length, srcOffset, xy.length, dstOffset, count);
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                Point2D p = projection.locationToXY(latLon[s], latLon[s + 1]);
+                xy[d] = p.getX();
+                xy[d + 1] = p.getY();
+            }
+        }
+
+        @Override
+        public void locationToXY(float[] latLon, int srcOffset, float[] xy, int dstOffset, int count) {
+            checkBatchBounds(latLon.length, srcOffset, xy.length, dstOffset, count);
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                Point2D p = projection.locationToXY(latLon[s], latLon[s + 1]);
+                xy[d] = (float) p.getX();
+                xy[d + 1] = (float) p.getY();
+            }
+        }
+
+        @Override
+        public void xyToLocation(double[] xy, int srcOffset, double[] latLon, int dstOffset, int count) {
+            checkBatchBounds(xy.length, srcOffset, latLon.length, dstOffset, count);
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                // the Point2D is (lon, lat), the batch layout (lat, lon)
+                Point2D p = projection.xyToLocation(xy[s], xy[s + 1]);
+                latLon[d] = p.getY();
+                latLon[d + 1] = p.getX();
+            }
+        }
+
+        @Override
+        public void xyToLocation(float[] xy, int srcOffset, float[] latLon, int dstOffset, int count) {
+            checkBatchBounds(xy.length, srcOffset, latLon.length, dstOffset, count);
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                Point2D p = projection.xyToLocation(xy[s], xy[s + 1]);
+                latLon[d] = (float) p.getY();
+                latLon[d + 1] = (float) p.getX();
+            }
+        }
+    }
 }
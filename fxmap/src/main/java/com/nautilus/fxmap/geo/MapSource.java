@@ -3,5 +3,9 @@ package com.nautilus.fxmap.geo;
 public enum MapSource {
     GOOGLE,
     OSM,
+    /**
+     * Tiles drawn by {@link com.nautilus.fxmap.tile.TileRenderer} straight onto the map canvas, no WebView
+     */
+    NATIVE,
     NONE
 }
\ No newline at end of file
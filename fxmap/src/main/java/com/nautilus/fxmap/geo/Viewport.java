@@ -0,0 +1,34 @@
+package com.nautilus.fxmap.geo;
+
+import javafx.geometry.Point2D;
+
+/**
+ * Immutable snapshot of what a {@link MapProjection} shows: bounds, zoom, screen size and the transform derived
+ * from them. A projection publishes a new snapshot atomically on every change, so a worker thread can take one with
+ * {@link MapProjection#getViewport()} and project a whole batch against it without locking and without seeing a
+ * half updated viewport.
+ *
+ * The batch methods use the same interleaved layout as the ones on {@link MapProjection}.
+ */
+public interface Viewport {
+
+    double getZoomLevel();
+
+    double getWidth();
+
+    double getHeight();
+
+    GeoBoundary getBounds();
+
+    Point2D locationToXY(double lat, double lon);
+
+    Point2D xyToLocation(double x, double y);
+
+    void locationToXY(double[] latLon, int srcOffset, double[] xy, int dstOffset, int count);
+
+    void locationToXY(float[] latLon, int srcOffset, float[] xy, int dstOffset, int count);
+
+    void xyToLocation(double[] xy, int srcOffset, double[] latLon, int dstOffset, int count);
+
+    void xyToLocation(float[] xy, int srcOffset, float[] latLon, int dstOffset, int count);
+}
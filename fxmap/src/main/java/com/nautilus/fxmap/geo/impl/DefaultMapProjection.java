@@ -1,10 +1,10 @@
 package com.nautilus.fxmap.geo.impl;
 
 import com.nautilus.fxmap.geo.GeoBoundary;
-import com.nautilus.fxmap.geo.GeoMappedPoint;
 import com.nautilus.fxmap.geo.GeoPoint;
 import com.nautilus.fxmap.geo.MapProjection;
 import com.nautilus.fxmap.geo.MapSource;
+import com.nautilus.fxmap.geo.Viewport;
 import com.nautilus.fxmap.map.JSMapBridge;
 import com.nautilus.fxmap.map.impl.DefaultJSMapBridge;
 import javafx.geometry.Point2D;
@@ -12,13 +12,13 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 import javafx.scene.web.WebEngine;
 
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * TODO: This class is just correct for US or somewhere in the WEST
  * we need to fix the formulas in this class so that they are correct worldwide
  * https://en.wikipedia.org/wiki/Web_Mercator_projection
+ * Use {@link WebMercatorProjection} where overlays have to line up with the web map outside of that area.
  * @author davu
  */
 public class DefaultMapProjection extends MapProjection {
@@ -30,37 +30,31 @@ public class DefaultMapProjection extends MapProjection {
      *      X---------------------|
      *  SE (South West)
      *
+     * Bounds, screen size and the ratios derived from them live in one immutable ViewportState. Every change
+     * publishes a new state, so readers on any thread always see a consistent viewport without locking.
      */
-    private final GeoMappedPoint southWest;
-    private final GeoMappedPoint northEast;
-    private boolean hasCenteringTransforms;
+    private final AtomicReference<ViewportState> viewport;
     private boolean matchingAspectRatio = true;
-    private boolean useMercatorProjection = false;
-
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     private final JSMapBridge jsMapBridge;
 
-    private double xRatio;
-    private double yRatio;
-
     // DATA SECTION
 //    private List<Way> ways;
     private Color background;
 
     public GeoBoundary getBounds() {
-        GeoBoundary bounds = new GeoBoundary(
-            jsMapBridge.getSouthWest().getLon(),
-            jsMapBridge.getNorthEast().getLon(),
-            jsMapBridge.getSouthWest().getLat(),
-            jsMapBridge.getNorthEast().getLat());
-        return new GeoBoundary(bounds);
+        // from the snapshot, the bridge's corner points are written field by field while the page reports
+        return viewport.get().getBounds();
+    }
+
+    @Override
+    public double getZoomLevel() {
+        return viewport.get().getZoomLevel();
     }
 
     public DefaultMapProjection() {
         this.zoomLevel = 8.0;
-        this.southWest = new GeoMappedPoint();
-        this.northEast = new GeoMappedPoint();
+        this.viewport = new AtomicReference<>(new ViewportState(0, 0, 0, 0, 0, 0, zoomLevel, false));
         jsMapBridge = new DefaultJSMapBridge();
         jsMapBridge.setEventHandler(this);
         jsMapBridge.setZoomLevel(this.zoomLevel);
@@ -68,8 +62,8 @@ public class DefaultMapProjection extends MapProjection {
 
     public DefaultMapProjection(double width, double height) {
         this.zoomLevel = 8.0;
-        this.southWest = new GeoMappedPoint(29.03, -127.49, 0, height);
-        this.northEast = new GeoMappedPoint(48.80, -64.56, width, 0);
+        this.viewport = new AtomicReference<>(new ViewportState(-127.49, 29.03, -64.56, 48.80, width, height,
+                zoomLevel, false));
         jsMapBridge = new DefaultJSMapBridge();
         jsMapBridge.setEventHandler(this);
         jsMapBridge.setZoomLevel(this.zoomLevel);
@@ -82,6 +76,11 @@ public class DefaultMapProjection extends MapProjection {
         jsMapBridge.initWebEngine();
     }
 
+    @Override
+    public JSMapBridge getJSMapBridge() {
+        return jsMapBridge;
+    }
+
     @Override
     public MapSource switchMapSource(MapSource target) {
         jsMapBridge.switchMapSource(target);
@@ -89,25 +88,18 @@ public class DefaultMapProjection extends MapProjection {
     }
 
     public void moveWebMapToCenter() {
-        GeoPoint center = new GeoPoint((southWest.getLatitude() + northEast.getLatitude()) / 2.0,
-                (northEast.getLongitude() + southWest.getLongitude()) / 2.0);
+        GeoPoint center = viewport.get().getBounds().getCenter();
         jsMapBridge.setCenter(center.getLon(), center.getLat());
-        jsMapBridge.executeScript("document.panTo()");
-        // The map moved to a new bounds so we have to calculate the bounds for this area again
-        GeoBoundary bounds = new GeoBoundary(
-                jsMapBridge.getSouthWest().getLon(),
-                jsMapBridge.getNorthEast().getLon(),
-                jsMapBridge.getSouthWest().getLat(),
-                jsMapBridge.getNorthEast().getLat());
-        setBounds(bounds);
+        // Queued: the bridge still holds the old extent here. The page reports the new one after the pan and
+        // onWebMapPropertiesChanged takes it over, reading it now would pin the viewport to the old bounds
+        jsMapBridge.submitScript("document.panTo()");
     }
 
     public void zoomIn() {
-        zoomLevel = jsMapBridge.getZoomLevel();
-        if(zoomLevel < MAX_ZOOM_LEVEL) {
-            zoomLevel = zoomLevel + 1.0;
-            jsMapBridge.setZoomLevel(zoomLevel);
-            jsMapBridge.executeScript("document.boundsAndZoom()");
+        final double zoom = jsMapBridge.getZoomLevel();
+        if(zoom < MAX_ZOOM_LEVEL) {
+            setZoom(zoom + 1.0);
+            jsMapBridge.submitScript("document.boundsAndZoom()");
 //            // The map moved to a new bounds so we have to calculate the bounds for this area again
 //            GeoBoundary bounds = new GeoBoundary(
 //                    jsMapBridge.getSouthWest().getLon(),
@@ -119,11 +111,10 @@ public class DefaultMapProjection extends MapProjection {
     }
 
     public void zoomOut() {
-        zoomLevel = jsMapBridge.getZoomLevel();
-        if(zoomLevel > MIN_ZOOM_LEVEL) {
-            zoomLevel = zoomLevel - 1.0;
-            jsMapBridge.setZoomLevel(zoomLevel);
-            jsMapBridge.executeScript("document.boundsAndZoom()");
+        final double zoom = jsMapBridge.getZoomLevel();
+        if(zoom > MIN_ZOOM_LEVEL) {
+            setZoom(zoom - 1.0);
+            jsMapBridge.submitScript("document.boundsAndZoom()");
 //            // The map moved to a new bounds so we have to calculate the bounds for this area again
 //            GeoBoundary bounds = new GeoBoundary(
 //                    jsMapBridge.getSouthWest().getLon(),
@@ -134,47 +125,52 @@ public class DefaultMapProjection extends MapProjection {
         }
     }
 
+    // the bounds follow with the page's reply
+    private void setZoom(double zoom) {
+        zoomLevel = zoom;
+        jsMapBridge.setZoomLevel(zoom);
+        viewport.updateAndGet(v -> v.withZoomLevel(zoom));
+    }
+
     private void marshalFromJSBridge() {
-        zoomLevel = jsMapBridge.getZoomLevel();
-        southWest.setLatitude(jsMapBridge.getSouthWest().getLat());
-        southWest.setLongitude(jsMapBridge.getSouthWest().getLon());
-        northEast.setLatitude(jsMapBridge.getNorthEast().getLat());
-        northEast.setLongitude(jsMapBridge.getNorthEast().getLon());
+        final double zoom = jsMapBridge.getZoomLevel();
+        zoomLevel = zoom;
+        final double minLon = jsMapBridge.getSouthWest().getLon();
+        final double minLat = jsMapBridge.getSouthWest().getLat();
+        final double maxLon = jsMapBridge.getNorthEast().getLon();
+        final double maxLat = jsMapBridge.getNorthEast().getLat();
+        viewport.updateAndGet(v -> v.withBounds(minLon, minLat, maxLon, maxLat).withZoomLevel(zoom));
+    }
+
+    @Override
+    public Viewport getViewport() {
+        return viewport.get();
     }
 
     public Point2D locationToXYMercator(double lat, double lon) {
-        double x1 = WORLD_MAP_WIDTH * (Math.pow(2.0, zoomLevel)) * (lon + Math.PI) / TWO_PI;
-        double y1 = WORLD_MAP_HEIGHT * (Math.pow(2.0, zoomLevel)) * (Math.PI - Math.log(Math.tan(PI_OVER_4 + lat/2.0))) / TWO_PI ;
-        return new Point2D(x1, y1);
+        return viewport.get().locationToXYMercator(lat, lon);
     }
 
     @Override
     public Point2D locationToXY(double lat, double lon) {
-        if(useMercatorProjection) {
-            return locationToXYMercator(lat, lon);
-        }
-
-        double x1 = (lon - southWest.getLongitude() ) / xRatio;
-        double y1 = (northEast.getLatitude() - lat) / yRatio;
-        return new Point2D(x1, y1);
+        return viewport.get().locationToXY(lat, lon);
     }
 
     public Point2D xyToLocationMercator(double x, double y) {
-        double lon = (x * TWO_PI) /(WORLD_MAP_WIDTH * (Math.pow(2.0, zoomLevel))) - Math.PI;
-        double num1 = y * TWO_PI / (WORLD_MAP_HEIGHT * (Math.pow(2.0, zoomLevel)));
-        double num2 = -(num1 - Math.PI);
-        double lat = 2.0 * (Math.atan(Math.exp(num2)) - PI_OVER_4);
-        return new Point2D(lon, lat);
+        return viewport.get().xyToLocationMercator(x, y);
     }
 
     @Override
     public Point2D xyToLocation(double x, double y) {
-        if(useMercatorProjection)
-            return xyToLocationMercator(x, y);
+        return viewport.get().xyToLocation(x, y);
+    }
 
-        double lon = southWest.getLongitude() + xRatio * x;
-        double lat = northEast.getLatitude() - yRatio * y;
-        return new Point2D(lon, lat);
+    public boolean isUseMercatorProjection() {
+        return viewport.get().mercator;
+    }
+
+    public void setUseMercatorProjection(boolean useMercatorProjection) {
+        viewport.updateAndGet(v -> v.withMercator(useMercatorProjection));
     }
 
     //TODO: correct this method
@@ -187,56 +183,41 @@ public class DefaultMapProjection extends MapProjection {
     public void render(GraphicsContext graphicsContext) { }
 
     public double getWidth() {
-        return northEast.getX() - southWest.getX() + 1;
+        return viewport.get().width + 1;
     }
 
     public double getHeight() {
-        return southWest.getY() - northEast.getY() + 1;
+        return viewport.get().height + 1;
     }
 
     public double centerScreenX() {
-        return (northEast.getX() + southWest.getX()) / 2.0;
+        return viewport.get().width / 2.0;
     }
 
     public double centerScreenY() {
-        return (southWest.getY() + northEast.getY()) / 2.0;
+        return viewport.get().height / 2.0;
     }
 
     public void setScreenSize(int width, int height) {
-        lock.writeLock().lock();
-        southWest.setXY(0.0, height);
-        northEast.setXY(width, 0.0);
-        hasCenteringTransforms = false;
-        try {
-            setTransforms(false);
-        } catch (Exception e) {
-//            LOG.error(e);
-            e.printStackTrace();
-        } finally {
-            lock.writeLock().unlock();
-        }
+        viewport.updateAndGet(v -> v.withScreenSize(width, height));
     }
 
     @Override
     public void translateCenterInPixel(double dx, double dy) {
-        double dLng = (dx + 1) * xRatio;
-        double dLat = (dy + 1) * yRatio;
+        ViewportState v = viewport.get();
+        double dLng = (dx + 1) * v.xRatio;
+        double dLat = (dy + 1) * v.yRatio;
 
         double newCenterLat = jsMapBridge.getCenterLat() + dLat;
         double newCenterLng = jsMapBridge.getCenterLng() - dLng;
         jsMapBridge.setCenter(newCenterLng, newCenterLat);
-        jsMapBridge.executeScript("document.panTo()");
-    }
-
-    private void setTransforms(boolean b) {
-        xRatio = Math.abs(northEast.getLongitude() - southWest.getLongitude()) / (Math.abs(northEast.getX() - southWest.getX()) + 1);
-        yRatio = Math.abs(southWest.getLatitude() - northEast.getLatitude()) / (Math.abs(southWest.getY() - northEast.getY()) + 1);
+        jsMapBridge.submitScript("document.panTo()");
     }
 
     public void setPreBounds(GeoBoundary preBounds) {
         GeoPoint center = preBounds.getCenter();
         jsMapBridge.setCenter(center.getLon(), center.getLat());
-        jsMapBridge.executeScript("document.panTo()");
+        jsMapBridge.submitScript("document.panTo()");
 
 //        // The map moved to a new bounds so we have to calculate the bounds for this area again
 //        GeoBoundary bounds = new GeoBoundary(
@@ -248,20 +229,8 @@ public class DefaultMapProjection extends MapProjection {
     }
 
     public void setBounds(GeoBoundary value) {
-        lock.writeLock().lock();
-        try {
-            southWest.setLongitude(value.getMinX());
-            southWest.setLatitude(value.getMinY());
-            northEast.setLatitude(value.getMaxY());
-            northEast.setLongitude(value.getMaxX());
-            setTransforms(true);
-//            fireMapBoundsListenerMapBoundsChanged(old, new GeoBoundary(this.bounds));
-        } catch (Exception e) {
-//            LOG.error(e);
-            e.printStackTrace();
-        } finally {
-            lock.writeLock().unlock();
-        }
+        viewport.updateAndGet(v -> v.withBounds(value.getMinX(), value.getMinY(), value.getMaxX(), value.getMaxY()));
+//        fireMapBoundsListenerMapBoundsChanged(old, new GeoBoundary(this.bounds));
     }
 
     private void fireMapBoundsListenerMapBoundsChanged(GeoBoundary old, GeoBoundary bounds1) {
@@ -272,20 +241,206 @@ public class DefaultMapProjection extends MapProjection {
 
     @Override
     public String toString() {
-        return "DefaultMapProjection's SW: " + southWest + ", NE: " + northEast + "\n"
+        return "DefaultMapProjection's " + viewport.get() + "\n"
                 + "WebMap's bound: " + jsMapBridge.toString();
     }
 
     @Override
     public void onWebMapInitialized() {
         marshalFromJSBridge();
-        setTransforms(true);
     }
 
     @Override
     public void onWebMapPropertiesChanged() {
         marshalFromJSBridge();
-        setTransforms(true);
         fireMapBoundsListenerMapBoundsChanged(null, null);
     }
+
+    /**
+     * Immutable viewport of {@link DefaultMapProjection}. The screen spans (0, 0) at the north west corner to
+     * (width, height) at the south east corner.
+     */
+    private static final class ViewportState implements Viewport {
+        private final double minLon;
+        private final double minLat;
+        private final double maxLon;
+        private final double maxLat;
+        private final double width;
+        private final double height;
+        private final double zoomLevel;
+        private final boolean mercator;
+
+        private final double xRatio;
+        private final double yRatio;
+        private final double mercatorXFactor;
+        private final double mercatorYFactor;
+
+        ViewportState(double minLon, double minLat, double maxLon, double maxLat,
+                      double width, double height, double zoomLevel, boolean mercator) {
+            this.minLon = minLon;
+            this.minLat = minLat;
+            this.maxLon = maxLon;
+            this.maxLat = maxLat;
+            this.width = width;
+            this.height = height;
+            this.zoomLevel = zoomLevel;
+            this.mercator = mercator;
+            this.xRatio = Math.abs(maxLon - minLon) / (Math.abs(width) + 1);
+            this.yRatio = Math.abs(minLat - maxLat) / (Math.abs(height) + 1);
+            double scale = Math.pow(2.0, zoomLevel);
+            this.mercatorXFactor = WORLD_MAP_WIDTH * scale / TWO_PI;
+            this.mercatorYFactor = WORLD_MAP_HEIGHT * scale / TWO_PI;
+        }
+
+        ViewportState withBounds(double minLon, double minLat, double maxLon, double maxLat) {
+            return new ViewportState(minLon, minLat, maxLon, maxLat, width, height, zoomLevel, mercator);
+        }
+
+        ViewportState withScreenSize(double width, double height) {
+            return new ViewportState(minLon, minLat, maxLon, maxLat, width, height, zoomLevel, mercator);
+        }
+
+        ViewportState withZoomLevel(double zoomLevel) {
+            return new ViewportState(minLon, minLat, maxLon, maxLat, width, height, zoomLevel, mercator);
+        }
+
+        ViewportState withMercator(boolean mercator) {
+            return new ViewportState(minLon, minLat, maxLon, maxLat, width, height, zoomLevel, mercator);
+        }
+
+        @Override
+        public double getZoomLevel() {
+            return zoomLevel;
+        }
+
+        @Override
+        public double getWidth() {
+            return width;
+        }
+
+        @Override
+        public double getHeight() {
+            return height;
+        }
+
+        @Override
+        public GeoBoundary getBounds() {
+            return new GeoBoundary(minLon, maxLon, minLat, maxLat);
+        }
+
+        Point2D locationToXYMercator(double lat, double lon) {
+            double x1 = mercatorXFactor * (lon + Math.PI);
+            double y1 = mercatorYFactor * (Math.PI - Math.log(Math.tan(PI_OVER_4 + lat/2.0)));
+            return new Point2D(x1, y1);
+        }
+
+        @Override
+        public Point2D locationToXY(double lat, double lon) {
+            if(mercator) {
+                return locationToXYMercator(lat, lon);
+            }
+
+            double x1 = (lon - minLon) / xRatio;
+            double y1 = (maxLat - lat) / yRatio;
+            return new Point2D(x1, y1);
+        }
+
+        Point2D xyToLocationMercator(double x, double y) {
+            double lon = x / mercatorXFactor - Math.PI;
+            double lat = 2.0 * (Math.atan(Math.exp(Math.PI - y / mercatorYFactor)) - PI_OVER_4);
+            return new Point2D(lon, lat);
+        }
+
+        @Override
+        public Point2D xyToLocation(double x, double y) {
+            if(mercator)
+                return xyToLocationMercator(x, y);
+
+            double lon = minLon + xRatio * x;
+            double lat = maxLat - yRatio * y;
+            return new Point2D(lon, lat);
+        }
+
+        @Override
+        public void locationToXY(double[] latLon, int srcOffset, double[] xy, int dstOffset, int count) {
+            checkBatchBounds(latLon.length, srcOffset, xy.length, dstOffset, count);
+            if(mercator) {
+                final double xf = mercatorXFactor, yf = mercatorYFactor;
+                for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                    xy[d] = xf * (latLon[s + 1] + Math.PI);
+                    xy[d + 1] = yf * (Math.PI - Math.log(Math.tan(PI_OVER_4 + latLon[s] / 2.0)));
+                }
+                return;
+            }
+
+            final double lon0 = minLon, lat0 = maxLat, xr = xRatio, yr = yRatio;
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                xy[d] = (latLon[s + 1] - lon0) / xr;
+                xy[d + 1] = (lat0 - latLon[s]) / yr;
+            }
+        }
+
+        @Override
+        public void locationToXY(float[] latLon, int srcOffset, float[] xy, int dstOffset, int count) {
+            checkBatchBounds(latLon.length, srcOffset, xy.length, dstOffset, count);
+            if(mercator) {
+                final double xf = mercatorXFactor, yf = mercatorYFactor;
+                for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                    xy[d] = (float) (xf * (latLon[s + 1] + Math.PI));
+                    xy[d + 1] = (float) (yf * (Math.PI - Math.log(Math.tan(PI_OVER_4 + latLon[s] / 2.0))));
+                }
+                return;
+            }
+
+            final double lon0 = minLon, lat0 = maxLat, xr = xRatio, yr = yRatio;
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                xy[d] = (float) ((latLon[s + 1] - lon0) / xr);
+                xy[d + 1] = (float) ((lat0 - latLon[s]) / yr);
+            }
+        }
+
+        @Override
+        public void xyToLocation(double[] xy, int srcOffset, double[] latLon, int dstOffset, int count) {
+            checkBatchBounds(xy.length, srcOffset, latLon.length, dstOffset, count);
+            if(mercator) {
+                final double xf = mercatorXFactor, yf = mercatorYFactor;
+                for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                    latLon[d] = 2.0 * (Math.atan(Math.exp(Math.PI - xy[s + 1] / yf)) - PI_OVER_4);
+                    latLon[d + 1] = xy[s] / xf - Math.PI;
+                }
+                return;
+            }
+
+            final double lon0 = minLon, lat0 = maxLat, xr = xRatio, yr = yRatio;
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                latLon[d] = lat0 - yr * xy[s + 1];
+                latLon[d + 1] = lon0 + xr * xy[s];
+            }
+        }
+
+        @Override
+        public void xyToLocation(float[] xy, int srcOffset, float[] latLon, int dstOffset, int count) {
+            checkBatchBounds(xy.length, srcOffset, latLon.length, dstOffset, count);
+            if(mercator) {
+                final double xf = mercatorXFactor, yf = mercatorYFactor;
+                for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                    latLon[d] = (float) (2.0 * (Math.atan(Math.exp(Math.PI - xy[s + 1] / yf)) - PI_OVER_4));
+                    latLon[d + 1] = (float) (xy[s] / xf - Math.PI);
+                }
+                return;
+            }
+
+            final double lon0 = minLon, lat0 = maxLat, xr = xRatio, yr = yRatio;
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                latLon[d] = (float) (lat0 - yr * xy[s + 1]);
+                latLon[d + 1] = (float) (lon0 + xr * xy[s]);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "SW: (" + minLat + ", " + minLon + "), NE: (" + maxLat + ", " + maxLon + "), screen: "
+                    + width + "x" + height + ", zoom: " + zoomLevel;
+        }
+    }
 }
@@ -0,0 +1,387 @@
+package com.nautilus.fxmap.geo.impl;
+
+import com.nautilus.fxmap.geo.GeoBoundary;
+import com.nautilus.fxmap.geo.GeoPoint;
+import com.nautilus.fxmap.geo.MapProjection;
+import com.nautilus.fxmap.geo.MapSource;
+import com.nautilus.fxmap.geo.Viewport;
+import com.nautilus.fxmap.map.JSMapBridge;
+import com.nautilus.fxmap.map.impl.DefaultJSMapBridge;
+import javafx.geometry.Point2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.web.WebEngine;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Spherical Web Mercator (EPSG:3857) projection, correct worldwide.
+ * https://en.wikipedia.org/wiki/Web_Mercator_projection
+ *
+ * Works in tile-pixel space: at zoom z the world is {@code TILE_SIZE * 2^z} pixels wide, and the screen is a window
+ * into that world placed by the map center. Latitude and longitude are in degrees. Everything that only depends on
+ * the zoom level or the viewport is computed once per change into an immutable {@link Viewport}, so projecting a
+ * point costs one multiply-add for x and one sin/log for y, and any thread can project against a consistent snapshot.
+ *
+ * When a web map is attached the viewport follows the extents reported by the page, otherwise zoom and pan are
+ * applied directly and the listeners are notified by this class.
+ */
+public class WebMercatorProjection extends MapProjection {
+
+    public static final int TILE_SIZE = 256;
+
+    private static final double FOUR_PI = Math.PI * 4.0;
+    private static final double MAX_SIN = Math.sin(Math.toRadians(MAX_LATITUDE));
+
+    private final JSMapBridge jsMapBridge;
+    private boolean webMapAttached = false;
+
+    private final AtomicReference<ViewportState> viewport;
+
+    public WebMercatorProjection() {
+        this(0.0, 0.0, 8.0);
+    }
+
+    public WebMercatorProjection(double centerLat, double centerLon, double zoomLevel) {
+        this.zoomLevel = zoomLevel;
+        this.viewport = new AtomicReference<>(new ViewportState(centerLat, centerLon, zoomLevel, 0, 0));
+        jsMapBridge = new DefaultJSMapBridge();
+        jsMapBridge.setEventHandler(this);
+        jsMapBridge.setZoomLevel(zoomLevel);
+        jsMapBridge.setCenter(centerLon, centerLat);
+    }
+
+    private static double normalizedY(double lat) {
+        double sin = Math.min(Math.max(Math.sin(Math.toRadians(lat)), -MAX_SIN), MAX_SIN);
+        return 0.5 - Math.log((1.0 + sin) / (1.0 - sin)) / FOUR_PI;
+    }
+
+    @Override
+    public Viewport getViewport() {
+        return viewport.get();
+    }
+
+    @Override
+    public Point2D locationToXY(double lat, double lon) {
+        return viewport.get().locationToXY(lat, lon);
+    }
+
+    @Override
+    public Point2D xyToLocation(double x, double y) {
+        return viewport.get().xyToLocation(x, y);
+    }
+
+    @Override
+    public void setScreenSize(int w, int h) {
+        viewport.updateAndGet(v -> v.withScreenSize(w, h));
+    }
+
+    @Override
+    public void render(GraphicsContext g) { }
+
+    @Override
+    public GeoBoundary getBounds() {
+        return viewport.get().getBounds();
+    }
+
+    /**
+     * Moves the center to the center of the given bounds, keeping the zoom level.
+     */
+    @Override
+    public void setPreBounds(GeoBoundary preBounds) {
+        GeoPoint center = preBounds.getCenter();
+        setCenter(center.getLat(), center.getLon());
+    }
+
+    public void setCenter(double lat, double lon) {
+        applyCamera(viewport.get().withCenter(lat, lon));
+    }
+
+    public void setZoomLevel(double zoom) {
+        applyCamera(viewport.get().withZoomLevel(Math.max(MIN_ZOOM_LEVEL, Math.min(MAX_ZOOM_LEVEL, zoom))));
+    }
+
+    /**
+     * Pans the map by a screen offset; a positive dx/dy drags the content right/down.
+     */
+    @Override
+    public void translateCenterInPixel(double dx, double dy) {
+        ViewportState v = viewport.get();
+        Point2D center = v.xyToLocation(v.width / 2.0 - dx, v.height / 2.0 - dy);
+        applyCamera(v.withCenter(center.getY(), center.getX()));
+    }
+
+    @Override
+    public void zoomIn() {
+        double zoom = viewport.get().zoomLevel;
+        if(zoom < MAX_ZOOM_LEVEL) {
+            setZoomLevel(zoom + 1.0);
+        }
+    }
+
+    @Override
+    public void zoomOut() {
+        double zoom = viewport.get().zoomLevel;
+        if(zoom > MIN_ZOOM_LEVEL) {
+            setZoomLevel(zoom - 1.0);
+        }
+    }
+
+    /**
+     * @return the zoom of the current viewport; with a web map a zoom counts once the page reported it
+     */
+    @Override
+    public double getZoomLevel() {
+        return viewport.get().zoomLevel;
+    }
+
+    private void applyCamera(ViewportState target) {
+        zoomLevel = target.zoomLevel;
+        if(webMapAttached) {
+            // The page reports the resulting extent back through onWebMapPropertiesChanged
+            jsMapBridge.setCamera(target.centerLat, target.centerLon, target.zoomLevel, Double.NaN);
+            return;
+        }
+        viewport.updateAndGet(v -> v.withCamera(target.centerLat, target.centerLon, target.zoomLevel));
+        fireMapBoundsListenerMapBoundsChanged();
+    }
+
+    @Override
+    public void initializeJSBridge(WebEngine webEngine) {
+        jsMapBridge.setWebEngine(webEngine);
+        jsMapBridge.setJavaScriptEnabled(true);
+        jsMapBridge.initWebEngine();
+        webMapAttached = true;
+    }
+
+    @Override
+    public JSMapBridge getJSMapBridge() {
+        return jsMapBridge;
+    }
+
+    @Override
+    public MapSource switchMapSource(MapSource target) {
+        jsMapBridge.switchMapSource(target);
+        return jsMapBridge.getMapSource();
+    }
+
+    /**
+     * Takes center and zoom from the extent reported by the web map. The zoom is derived from the extent width so
+     * that it also follows fractional zooms and zooming done inside the page.
+     */
+    private void marshalFromJSBridge() {
+        GeoPoint sw = jsMapBridge.getSouthWest();
+        GeoPoint ne = jsMapBridge.getNorthEast();
+        final double x1 = (sw.getLon() + 180.0) / 360.0;
+        double x2 = (ne.getLon() + 180.0) / 360.0;
+        if(x2 < x1) {
+            // extent crosses the antimeridian
+            x2 += 1.0;
+        }
+        final double unitX2 = x2;
+        final double unitY1 = normalizedY(sw.getLat());
+        final double unitY2 = normalizedY(ne.getLat());
+        final double bridgeZoom = jsMapBridge.getZoomLevel();
+        ViewportState updated = viewport.updateAndGet(v -> {
+            double zoom = bridgeZoom;
+            if(v.width > 0 && unitX2 > x1) {
+                zoom = Math.log(v.width / ((unitX2 - x1) * TILE_SIZE)) / Math.log(2.0);
+            }
+            double centerLon = (x1 + unitX2) / 2.0 * 360.0 - 180.0;
+            if(centerLon > 180.0) {
+                centerLon -= 360.0;
+            }
+            double centerLat = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1.0 - (unitY1 + unitY2)))));
+            return v.withCamera(centerLat, centerLon, zoom);
+        });
+        zoomLevel = updated.zoomLevel;
+    }
+
+    private void fireMapBoundsListenerMapBoundsChanged() {
+        for(MapBoundChangeListener l: this.mapBoundsListenerList) {
+            l.onMapBoundChange(null, null);
+        }
+    }
+
+    @Override
+    public void onWebMapInitialized() {
+        marshalFromJSBridge();
+    }
+
+    @Override
+    public void onWebMapPropertiesChanged() {
+        marshalFromJSBridge();
+        fireMapBoundsListenerMapBoundsChanged();
+    }
+
+    public double getCenterLat() {
+        return viewport.get().centerLat;
+    }
+
+    public double getCenterLon() {
+        return viewport.get().centerLon;
+    }
+
+    /**
+     * @return the width of the whole world in pixels at the current zoom level
+     */
+    public double getWorldSize() {
+        return viewport.get().worldSize;
+    }
+
+    @Override
+    public double getWidth() {
+        return viewport.get().width;
+    }
+
+    @Override
+    public double getHeight() {
+        return viewport.get().height;
+    }
+
+    @Override
+    public double centerScreenX() {
+        return viewport.get().width / 2.0;
+    }
+
+    @Override
+    public double centerScreenY() {
+        return viewport.get().height / 2.0;
+    }
+
+    @Override
+    public String toString() {
+        return "WebMercatorProjection's " + viewport.get() + "\n"
+                + "WebMap's bound: " + jsMapBridge.toString();
+    }
+
+    /**
+     * Immutable camera (center, zoom, screen size) with the tile-pixel transform precomputed from it.
+     */
+    private static final class ViewportState implements Viewport {
+        private final double centerLat;
+        private final double centerLon;
+        private final double zoomLevel;
+        private final double width;
+        private final double height;
+
+        private final double worldSize;
+        private final double xFactor;
+        private final double xOffset;
+        private final double yFactor;
+        private final double yOffset;
+
+        ViewportState(double centerLat, double centerLon, double zoomLevel, double width, double height) {
+            this.centerLat = centerLat;
+            this.centerLon = centerLon;
+            this.zoomLevel = zoomLevel;
+            this.width = width;
+            this.height = height;
+            this.worldSize = TILE_SIZE * Math.pow(2.0, zoomLevel);
+            double originX = worldSize * (centerLon + 180.0) / 360.0 - width / 2.0;
+            double originY = worldSize * normalizedY(centerLat) - height / 2.0;
+            this.xFactor = worldSize / 360.0;
+            this.xOffset = worldSize / 2.0 - originX;
+            this.yFactor = worldSize / FOUR_PI;
+            this.yOffset = worldSize / 2.0 - originY;
+        }
+
+        ViewportState withCenter(double lat, double lon) {
+            return new ViewportState(lat, lon, zoomLevel, width, height);
+        }
+
+        ViewportState withZoomLevel(double zoom) {
+            return new ViewportState(centerLat, centerLon, zoom, width, height);
+        }
+
+        ViewportState withCamera(double lat, double lon, double zoom) {
+            return new ViewportState(lat, lon, zoom, width, height);
+        }
+
+        ViewportState withScreenSize(double w, double h) {
+            return new ViewportState(centerLat, centerLon, zoomLevel, w, h);
+        }
+
+        @Override
+        public double getZoomLevel() {
+            return zoomLevel;
+        }
+
+        @Override
+        public double getWidth() {
+            return width;
+        }
+
+        @Override
+        public double getHeight() {
+            return height;
+        }
+
+        @Override
+        public GeoBoundary getBounds() {
+            Point2D nw = xyToLocation(0.0, 0.0);
+            Point2D se = xyToLocation(width, height);
+            return new GeoBoundary(nw.getX(), se.getX(), se.getY(), nw.getY());
+        }
+
+        @Override
+        public Point2D locationToXY(double lat, double lon) {
+            double sin = Math.min(Math.max(Math.sin(Math.toRadians(lat)), -MAX_SIN), MAX_SIN);
+            return new Point2D(lon * xFactor + xOffset, yOffset - yFactor * Math.log((1.0 + sin) / (1.0 - sin)));
+        }
+
+        @Override
+        public Point2D xyToLocation(double x, double y) {
+            double lon = (x - xOffset) / xFactor;
+            double lat = Math.toDegrees(2.0 * Math.atan(Math.exp((yOffset - y) / (2.0 * yFactor))) - Math.PI / 2.0);
+            return new Point2D(lon, lat);
+        }
+
+        @Override
+        public void locationToXY(double[] latLon, int srcOffset, double[] xy, int dstOffset, int count) {
+            checkBatchBounds(latLon.length, srcOffset, xy.length, dstOffset, count);
+            final double xf = xFactor, xo = xOffset, yf = yFactor, yo = yOffset;
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                double sin = Math.min(Math.max(Math.sin(Math.toRadians(latLon[s])), -MAX_SIN), MAX_SIN);
+                xy[d] = latLon[s + 1] * xf + xo;
+                xy[d + 1] = yo - yf * Math.log((1.0 + sin) / (1.0 - sin));
+            }
+        }
+
+        @Override
+        public void locationToXY(float[] latLon, int srcOffset, float[] xy, int dstOffset, int count) {
+            checkBatchBounds(latLon.length, srcOffset, xy.length, dstOffset, count);
+            final double xf = xFactor, xo = xOffset, yf = yFactor, yo = yOffset;
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                double sin = Math.min(Math.max(Math.sin(Math.toRadians(latLon[s])), -MAX_SIN), MAX_SIN);
+                xy[d] = (float) (latLon[s + 1] * xf + xo);
+                xy[d + 1] = (float) (yo - yf * Math.log((1.0 + sin) / (1.0 - sin)));
+            }
+        }
+
+        @Override
+        public void xyToLocation(double[] xy, int srcOffset, double[] latLon, int dstOffset, int count) {
+            checkBatchBounds(xy.length, srcOffset, latLon.length, dstOffset, count);
+            final double xf = xFactor, xo = xOffset, yf2 = 2.0 * yFactor, yo = yOffset;
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                latLon[d] = Math.toDegrees(2.0 * Math.atan(Math.exp((yo - xy[s + 1]) / yf2)) - Math.PI / 2.0);
+                latLon[d + 1] = (xy[s] - xo) / xf;
+            }
+        }
+
+        @Override
+        public void xyToLocation(float[] xy, int srcOffset, float[] latLon, int dstOffset, int count) {
+            checkBatchBounds(xy.length, srcOffset, latLon.length, dstOffset, count);
+            final double xf = xFactor, xo = xOffset, yf2 = 2.0 * yFactor, yo = yOffset;
+            for(int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 2, d += 2) {
+                latLon[d] = (float) Math.toDegrees(2.0 * Math.atan(Math.exp((yo - xy[s + 1]) / yf2)) - Math.PI / 2.0);
+                latLon[d + 1] = (float) ((xy[s] - xo) / xf);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "center: (" + centerLat + ", " + centerLon + "), zoom: " + zoomLevel
+                    + ", screen: " + width + "x" + height;
+        }
+    }
+}
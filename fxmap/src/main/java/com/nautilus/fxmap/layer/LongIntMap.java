@@ -0,0 +1,136 @@
+package com.nautilus.fxmap.layer;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from long keys to int values with linear probing, no boxing and no allocation except when
+ * it grows. Any long is a valid key. Not thread safe.
+ */
+public final class LongIntMap {
+
+    private static final int FREE = -1;
+
+    private long[] keys;
+    // FREE marks an empty slot, values themselves must not be negative
+    private int[] values;
+    private int mask;
+    private int size;
+
+    public LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, FREE);
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the value of the key, -1 if there is none
+     */
+    public int get(long key) {
+        for(int i = slot(key); ; i = (i + 1) & mask) {
+            if(values[i] == FREE) {
+                return -1;
+            }
+            if(keys[i] == key) {
+                return values[i];
+            }
+        }
+    }
+
+    /**
+     * @param value not negative
+     * @return the previous value, -1 if there was none
+     */
+    public int put(long key, int value) {
+        int i = slot(key);
+        for(; values[i] != FREE; i = (i + 1) & mask) {
+            if(keys[i] == key) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if(++size * 2 > keys.length) {
+            grow();
+        }
+        return -1;
+    }
+
+    /**
+     * @return the removed value, -1 if there was none
+     */
+    public int remove(long key) {
+        int i = slot(key);
+        for(; values[i] != FREE; i = (i + 1) & mask) {
+            if(keys[i] == key) {
+                int previous = values[i];
+                shiftBack(i);
+                size--;
+                return previous;
+            }
+        }
+        return -1;
+    }
+
+    // backward shift deletion keeps the probe chains intact without tombstones
+    private void shiftBack(int gap) {
+        for(int i = (gap + 1) & mask; values[i] != FREE; i = (i + 1) & mask) {
+            int home = slot(keys[i]);
+            // move the entry into the gap unless its home lies cyclically in (gap, i]
+            if(((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = FREE;
+    }
+
+    public void clear() {
+        if(size > 0) {
+            Arrays.fill(values, FREE);
+            size = 0;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Makes this map a copy of the other one, reusing the arrays when they are big enough.
+     */
+    public void copyFrom(LongIntMap other) {
+        if(keys.length != other.keys.length) {
+            keys = new long[other.keys.length];
+            values = new int[other.values.length];
+        }
+        System.arraycopy(other.keys, 0, keys, 0, keys.length);
+        System.arraycopy(other.values, 0, values, 0, values.length);
+        mask = other.mask;
+        size = other.size;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(values, FREE);
+        mask = keys.length - 1;
+        size = 0;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldValues[i] != FREE) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,651 @@
+package com.nautilus.fxmap.layer;
+
+import com.nautilus.fxmap.geo.GeoBoundary;
+import com.nautilus.fxmap.geo.Viewport;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Layer for large numbers of moving objects, e.g. tens of thousands of vehicles, drawn as heading arrows.
+ *
+ * Objects are kept as struct of arrays, ids, interleaved (lat, lon) pairs, headings and styles in primitive arrays,
+ * in two buffers. Writers change the back buffer from any thread with {@link #put(long, double, double, float, int)}
+ * and {@link #remove(long)}, then {@link #publish()}; the render pulse swaps the published buffer in and draws the
+ * front one without locking it. After a swap the next write first brings the back buffer up to date, so the FX
+ * thread holds the lock only for the swap itself.
+ *
+ * Rendering culls against the viewport bounds, projects the objects inside with one batch call and blits
+ * pre-rendered sprites (per style, in {@link #HEADING_STEPS} headings) into an ARGB pixel buffer that is uploaded in
+ * one {@link WritableImage} update. Only the pixels of last frame's and this frame's sprites are cleared and
+ * uploaded. Above {@link #setDenseThreshold(int) a number of visible objects} they are drawn as small dots. Nothing
+ * is allocated per frame, only when the buffers, the canvas or the styles grow.
+ *
+ * Coordinates are in the units of the projection, e.g. degrees for
+ * {@link com.nautilus.fxmap.geo.impl.WebMercatorProjection}.
+ */
+public class MovingObjectLayer {
+
+    public static final int HEADING_STEPS = 32;
+
+    private static final int BAND_SHIFT = 4;
+    private static final int DOT_SIZE = 3;
+
+    private static final PixelFormat<IntBuffer> FORMAT = PixelFormat.getIntArgbPreInstance();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private Buffer back;
+    private Buffer front;
+    private boolean published;
+    private boolean backStale;
+    private final Runnable onPublish;
+
+    // sprites per style: HEADING_STEPS premultiplied ARGB images of size x size, followed by the first and the
+    // end column of the covered pixels of each row, so blitting skips the transparent corners
+    private int[][][] sprites = new int[0][][];
+    private int[] spriteSizes = new int[0];
+    private int maxSpriteSize = 1;
+    private volatile int denseThreshold = 20_000;
+
+    // FX thread only
+    private WritableImage image;
+    private int[] pixels;
+    private int width;
+    private int height;
+    private double[] latLonScratch = new double[0];
+    private double[] xyScratch = new double[0];
+    private int[] styleScratch = new int[0];
+    private float[] headingScratch = new float[0];
+    // x, y, style and heading step of the sprites to draw, then sorted by band
+    private int[] itemScratch = new int[0];
+    private int[] sortedScratch = new int[0];
+    private int[] bandStarts = new int[0];
+    // top left corner and size of the sprites drawn last frame, to clear them
+    private int[] drawnBoxes = new int[0];
+    private int drawnCount;
+    private long drawnArea;
+    private int dirtyMinX;
+    private int dirtyMinY;
+    private int dirtyMaxX;
+    private int dirtyMaxY;
+    private Viewport lastViewport;
+    private boolean frameValid;
+    private double minLon;
+    private double maxLon;
+    private double minLat;
+    private double maxLat;
+
+    private long frameCount;
+    private long lastFrameNanos;
+    private int lastVisibleCount;
+
+    /**
+     * @param onPublish called on the publishing thread after {@link #publish()}, e.g. to request a render
+     */
+    public MovingObjectLayer(int expectedObjects, Runnable onPublish) {
+        this.back = new Buffer(expectedObjects);
+        this.front = new Buffer(expectedObjects);
+        this.onPublish = onPublish;
+        setStyle(0, 0xFF1E64C8, 9);
+    }
+
+    /**
+     * Defines how objects with the style look.
+     * @param argb not premultiplied color
+     * @param size of the arrow in pixels
+     */
+    public void setStyle(int style, int argb, int size) {
+        // the rotated arrows, then the dot drawn instead when the view is dense
+        int[][] rotations = new int[HEADING_STEPS + 1][];
+        for(int i = 0; i < HEADING_STEPS; i++) {
+            rotations[i] = arrowSprite(argb, size, 2 * Math.PI * i / HEADING_STEPS);
+        }
+        double r = DOT_SIZE / 2.0;
+        double[] dotX = new double[8];
+        double[] dotY = new double[8];
+        for(int k = 0; k < 8; k++) {
+            dotX[k] = r + r * Math.cos(Math.PI * (2 * k + 1) / 8);
+            dotY[k] = r + r * Math.sin(Math.PI * (2 * k + 1) / 8);
+        }
+        rotations[HEADING_STEPS] = sprite(argb, DOT_SIZE, dotX, dotY);
+        lock.lock();
+        try {
+            if(style >= sprites.length) {
+                sprites = Arrays.copyOf(sprites, style + 1);
+                spriteSizes = Arrays.copyOf(spriteSizes, style + 1);
+            }
+            sprites[style] = rotations;
+            spriteSizes[style] = size;
+            maxSpriteSize = Math.max(maxSpriteSize, size);
+            frameValid = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // an arrow pointing to the heading, clockwise from north
+    private static int[] arrowSprite(int argb, int size, double heading) {
+        double sin = Math.sin(heading);
+        double cos = Math.cos(heading);
+        double c = size / 2.0;
+        double r = size / 2.0 - 0.5;
+        // tip, right back corner, notch, left back corner in sprite coordinates
+        double[] px = new double[4];
+        double[] py = new double[4];
+        double[][] shape = {{0, -r}, {r * 0.8, r}, {0, r * 0.45}, {-r * 0.8, r}};
+        for(int k = 0; k < 4; k++) {
+            px[k] = c + shape[k][0] * cos - shape[k][1] * sin;
+            py[k] = c + shape[k][0] * sin + shape[k][1] * cos;
+        }
+        return sprite(argb, size, px, py);
+    }
+
+    // the polygon 4x4 supersampled
+    private static int[] sprite(int argb, int size, double[] px, double[] py) {
+        int[] sprite = new int[size * size + 2 * size];
+        int alpha = argb >>> 24;
+        for(int y = 0; y < size; y++) {
+            for(int x = 0; x < size; x++) {
+                int covered = 0;
+                for(int sy = 0; sy < 4; sy++) {
+                    for(int sx = 0; sx < 4; sx++) {
+                        if(inside(px, py, x + (sx + 0.5) / 4, y + (sy + 0.5) / 4)) {
+                            covered++;
+                        }
+                    }
+                }
+                int a = alpha * covered / 16;
+                if(a > 0) {
+                    int red = ((argb >> 16) & 0xFF) * a / 255;
+                    int green = ((argb >> 8) & 0xFF) * a / 255;
+                    int blue = (argb & 0xFF) * a / 255;
+                    sprite[y * size + x] = a << 24 | red << 16 | green << 8 | blue;
+                }
+            }
+            int first = 0;
+            int end = size;
+            while(first < end && sprite[y * size + first] == 0) {
+                first++;
+            }
+            while(end > first && sprite[y * size + end - 1] == 0) {
+                end--;
+            }
+            sprite[size * size + 2 * y] = first;
+            sprite[size * size + 2 * y + 1] = end;
+        }
+        return sprite;
+    }
+
+    // even-odd test against the polygon
+    private static boolean inside(double[] px, double[] py, double x, double y) {
+        boolean in = false;
+        for(int i = 0, j = px.length - 1; i < px.length; j = i++) {
+            if((py[i] > y) != (py[j] > y) && x < (px[j] - px[i]) * (y - py[i]) / (py[j] - py[i]) + px[i]) {
+                in = !in;
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Adds the object or updates it. Visible with the next {@link #publish()}.
+     * @param heading in degrees clockwise from north
+     */
+    public void put(long id, double lat, double lon, float heading, int style) {
+        lock.lock();
+        try {
+            Buffer b = writable();
+            int i = b.index.get(id);
+            if(i < 0) {
+                i = b.count;
+                b.ensureCapacity(i + 1);
+                b.count++;
+                b.ids[i] = id;
+                b.index.put(id, i);
+            }
+            b.latLon[2 * i] = lat;
+            b.latLon[2 * i + 1] = lon;
+            b.headings[i] = heading;
+            b.styles[i] = style;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.lock();
+        try {
+            Buffer b = writable();
+            int i = b.index.remove(id);
+            if(i < 0) {
+                return;
+            }
+            int last = --b.count;
+            if(i != last) {
+                // the last object takes the free slot, the arrays stay dense
+                b.ids[i] = b.ids[last];
+                b.latLon[2 * i] = b.latLon[2 * last];
+                b.latLon[2 * i + 1] = b.latLon[2 * last + 1];
+                b.headings[i] = b.headings[last];
+                b.styles[i] = b.styles[last];
+                b.index.put(b.ids[i], i);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            Buffer b = writable();
+            b.count = 0;
+            b.index.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds the writer lock, so a batch of puts and removes takes it once and a swap can't publish half of it.
+     * Must be paired with {@link #endUpdate()}.
+     */
+    public void beginUpdate() {
+        lock.lock();
+    }
+
+    public void endUpdate() {
+        lock.unlock();
+    }
+
+    /**
+     * Makes the changes so far visible to the next render.
+     */
+    public void publish() {
+        markPublished();
+        if(onPublish != null) {
+            onPublish.run();
+        }
+    }
+
+    // publish without the callback, for writers that run in the render pass themselves
+    void markPublished() {
+        lock.lock();
+        try {
+            published = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Buffer writable() {
+        if(backStale) {
+            back.copyFrom(front);
+            backStale = false;
+        }
+        return back;
+    }
+
+    /**
+     * Swaps the published buffer in. FX thread.
+     * @return true if there was something new
+     */
+    private boolean swap() {
+        lock.lock();
+        try {
+            if(!published) {
+                return false;
+            }
+            if(backStale) {
+                // nothing was written since the last swap, the front buffer is still current
+                published = false;
+                return false;
+            }
+            Buffer b = front;
+            front = back;
+            back = b;
+            published = false;
+            backStale = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Draws the layer onto the canvas of the graphics context, which should hold nothing else. Does nothing if
+     * neither the objects nor the viewport changed since the last call. FX thread.
+     */
+    public void render(GraphicsContext g, Viewport viewport) {
+        final int w = (int) Math.ceil(g.getCanvas().getWidth());
+        final int h = (int) Math.ceil(g.getCanvas().getHeight());
+        if(w <= 0 || h <= 0) {
+            return;
+        }
+        if(w != width || h != height) {
+            width = w;
+            height = h;
+            image = new WritableImage(w, h);
+            pixels = new int[w * h];
+            drawnCount = 0;
+            drawnArea = 0;
+            frameValid = false;
+        }
+        if(!renderPixels(viewport)) {
+            // the canvas still shows the last frame
+            return;
+        }
+        if(dirtyMaxX > dirtyMinX && dirtyMaxY > dirtyMinY) {
+            image.getPixelWriter().setPixels(dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX, dirtyMaxY - dirtyMinY,
+                    FORMAT, pixels, dirtyMinY * width + dirtyMinX, width);
+        }
+        g.clearRect(0, 0, w, h);
+        g.drawImage(image, 0, 0);
+    }
+
+    /**
+     * Draws the objects into the pixel buffer, unless neither they nor the viewport changed.
+     * @return true if pixels changed
+     */
+    boolean renderPixels(Viewport viewport) {
+        final long start = System.nanoTime();
+        boolean swapped = swap();
+        if(!swapped && frameValid && viewport == lastViewport) {
+            return false;
+        }
+        if(viewport != lastViewport) {
+            GeoBoundary bounds = viewport.getBounds();
+            minLon = bounds.getMinX();
+            maxLon = bounds.getMaxX();
+            minLat = bounds.getMinY();
+            maxLat = bounds.getMaxY();
+            lastViewport = viewport;
+        }
+        dirtyMinX = width;
+        dirtyMinY = height;
+        dirtyMaxX = 0;
+        dirtyMaxY = 0;
+        clearDrawn();
+
+        final Buffer f = front;
+        ensureScratch(f.capacity());
+        // objects whose sprite may reach into the viewport
+        final double padLon = maxSpriteSize * Math.abs(maxLon - minLon) / Math.max(1, width);
+        final double padLat = maxSpriteSize * Math.abs(maxLat - minLat) / Math.max(1, height);
+        final double loLon = minLon - padLon;
+        final double hiLon = maxLon + padLon;
+        final double loLat = minLat - padLat;
+        final double hiLat = maxLat + padLat;
+        final double[] latLon = f.latLon;
+        int n = 0;
+        for(int i = 0, count = f.count; i < count; i++) {
+            double lat = latLon[2 * i];
+            double lon = latLon[2 * i + 1];
+            if(lat >= loLat && lat <= hiLat && lon >= loLon && lon <= hiLon) {
+                latLonScratch[2 * n] = lat;
+                latLonScratch[2 * n + 1] = lon;
+                styleScratch[n] = f.styles[i];
+                headingScratch[n] = f.headings[i];
+                n++;
+            }
+        }
+        viewport.locationToXY(latLonScratch, 0, xyScratch, 0, n);
+
+        // arrows would overlap into noise anyway, dots cost a tenth of the pixels
+        final boolean dense = n > denseThreshold;
+        final int bands = (height >> BAND_SHIFT) + 1;
+        if(bandStarts.length < bands + 1) {
+            bandStarts = new int[bands + 1];
+        }
+        Arrays.fill(bandStarts, 0, bands + 1, 0);
+        final int[] items = itemScratch;
+        for(int i = 0; i < n; i++) {
+            int style = styleScratch[i];
+            if(style < 0 || style >= sprites.length || sprites[style] == null) {
+                style = 0;
+            }
+            int size;
+            int step;
+            if(dense) {
+                size = DOT_SIZE;
+                step = HEADING_STEPS;
+            } else {
+                size = spriteSizes[style];
+                step = Math.round(headingScratch[i] / 360f * HEADING_STEPS) % HEADING_STEPS;
+                if(step < 0) {
+                    step += HEADING_STEPS;
+                }
+            }
+            int x = (int) Math.round(xyScratch[2 * i] - size / 2.0);
+            int y = (int) Math.round(xyScratch[2 * i + 1] - size / 2.0);
+            items[4 * i] = x;
+            items[4 * i + 1] = y;
+            items[4 * i + 2] = style;
+            items[4 * i + 3] = step;
+            bandStarts[band(y, bands) + 1]++;
+        }
+        // counting sort into horizontal bands: the sprites of random objects hit random rows of the buffer, the
+        // rows of one band stay in the cache while its sprites are drawn
+        for(int b = 0; b < bands; b++) {
+            bandStarts[b + 1] += bandStarts[b];
+        }
+        final int[] sorted = sortedScratch;
+        for(int i = 0; i < n; i++) {
+            int o = 4 * bandStarts[band(items[4 * i + 1], bands)]++;
+            System.arraycopy(items, 4 * i, sorted, o, 4);
+        }
+
+        for(int k = 0; k < n; k++) {
+            int x = sorted[4 * k];
+            int y = sorted[4 * k + 1];
+            int style = sorted[4 * k + 2];
+            int step = sorted[4 * k + 3];
+            int size = step == HEADING_STEPS ? DOT_SIZE : spriteSizes[style];
+            if(blit(sprites[style][step], size, x, y)) {
+                int o = 3 * drawnCount++;
+                drawnBoxes[o] = x;
+                drawnBoxes[o + 1] = y;
+                drawnBoxes[o + 2] = size;
+                drawnArea += size * size;
+            }
+        }
+        lastVisibleCount = drawnCount;
+        frameValid = true;
+        frameCount++;
+        lastFrameNanos = System.nanoTime() - start;
+        return true;
+    }
+
+    private static int band(int y, int bands) {
+        return Math.min(bands - 1, Math.max(0, y >> BAND_SHIFT));
+    }
+
+    private void clearDrawn() {
+        final int[] p = pixels;
+        if(drawnArea > (long) width * height / 4) {
+            // one pass over the buffer beats many small fills
+            Arrays.fill(p, 0);
+            extendDirty(0, 0, width, height);
+            drawnCount = 0;
+            drawnArea = 0;
+            return;
+        }
+        for(int k = 0; k < drawnCount; k++) {
+            int o = 3 * k;
+            int x0 = Math.max(0, drawnBoxes[o]);
+            int y0 = Math.max(0, drawnBoxes[o + 1]);
+            int x1 = Math.min(width, drawnBoxes[o] + drawnBoxes[o + 2]);
+            int y1 = Math.min(height, drawnBoxes[o + 1] + drawnBoxes[o + 2]);
+            for(int y = y0; y < y1; y++) {
+                Arrays.fill(p, y * width + x0, y * width + x1, 0);
+            }
+            extendDirty(x0, y0, x1, y1);
+        }
+        drawnCount = 0;
+        drawnArea = 0;
+    }
+
+    // source over with premultiplied colors
+    private boolean blit(int[] sprite, int size, int x, int y) {
+        final int x0 = Math.max(0, x);
+        final int y0 = Math.max(0, y);
+        final int x1 = Math.min(width, x + size);
+        final int y1 = Math.min(height, y + size);
+        if(x0 >= x1 || y0 >= y1) {
+            return false;
+        }
+        final int[] p = pixels;
+        final int spans = size * size;
+        for(int py = y0; py < y1; py++) {
+            int row = py - y;
+            int from = Math.max(x0, x + sprite[spans + 2 * row]);
+            int to = Math.min(x1, x + sprite[spans + 2 * row + 1]);
+            int s = row * size + (from - x);
+            int d = py * width + from;
+            for(int px = from; px < to; px++, s++, d++) {
+                int src = sprite[s];
+                int a = src >>> 24;
+                if(a == 0) {
+                    continue;
+                }
+                if(a == 255) {
+                    p[d] = src;
+                    continue;
+                }
+                int dst = p[d];
+                int inv = 255 - a;
+                int ag = ((dst >>> 8) & 0x00FF00FF) * inv;
+                int rb = (dst & 0x00FF00FF) * inv;
+                p[d] = src + ((ag + 0x00800080 + ((ag >>> 8) & 0x00FF00FF)) & 0xFF00FF00)
+                        + (((rb + 0x00800080 + ((rb >>> 8) & 0x00FF00FF)) >>> 8) & 0x00FF00FF);
+            }
+        }
+        extendDirty(x0, y0, x1, y1);
+        return true;
+    }
+
+    private void extendDirty(int x0, int y0, int x1, int y1) {
+        dirtyMinX = Math.min(dirtyMinX, x0);
+        dirtyMinY = Math.min(dirtyMinY, y0);
+        dirtyMaxX = Math.max(dirtyMaxX, x1);
+        dirtyMaxY = Math.max(dirtyMaxY, y1);
+    }
+
+    private void ensureScratch(int capacity) {
+        if(styleScratch.length < capacity) {
+            latLonScratch = new double[2 * capacity];
+            xyScratch = new double[2 * capacity];
+            styleScratch = new int[capacity];
+            headingScratch = new float[capacity];
+            itemScratch = new int[4 * capacity];
+            sortedScratch = new int[4 * capacity];
+            drawnBoxes = Arrays.copyOf(drawnBoxes, 3 * capacity);
+        }
+    }
+
+    /**
+     * @param visibleObjects above this many objects in the viewport they are drawn as small dots without heading
+     */
+    public void setDenseThreshold(int visibleObjects) {
+        this.denseThreshold = visibleObjects;
+        lock.lock();
+        try {
+            frameValid = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getDenseThreshold() {
+        return denseThreshold;
+    }
+
+    /**
+     * @return objects in the buffer the last render drew from
+     */
+    public int getObjectCount() {
+        return front.count;
+    }
+
+    /**
+     * @return objects drawn by the last render
+     */
+    public int getVisibleCount() {
+        return lastVisibleCount;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return time the last frame took to cull, project and draw into the pixel buffer, without the upload
+     */
+    public double getLastFrameMillis() {
+        return lastFrameNanos / 1e6;
+    }
+
+    /**
+     * Sets the size of the pixel buffer without a canvas, for measuring {@link #renderPixels(Viewport)}.
+     */
+    void setSize(int w, int h) {
+        width = w;
+        height = h;
+        pixels = new int[w * h];
+        drawnCount = 0;
+        drawnArea = 0;
+        frameValid = false;
+    }
+
+    private static final class Buffer {
+        long[] ids;
+        double[] latLon;
+        float[] headings;
+        int[] styles;
+        int count;
+        final LongIntMap index;
+
+        Buffer(int capacity) {
+            capacity = Math.max(16, capacity);
+            ids = new long[capacity];
+            latLon = new double[2 * capacity];
+            headings = new float[capacity];
+            styles = new int[capacity];
+            index = new LongIntMap(capacity);
+        }
+
+        int capacity() {
+            return ids.length;
+        }
+
+        void ensureCapacity(int capacity) {
+            if(capacity <= ids.length) {
+                return;
+            }
+            int grown = Math.max(capacity, ids.length * 3 / 2);
+            ids = Arrays.copyOf(ids, grown);
+            latLon = Arrays.copyOf(latLon, 2 * grown);
+            headings = Arrays.copyOf(headings, grown);
+            styles = Arrays.copyOf(styles, grown);
+        }
+
+        void copyFrom(Buffer other) {
+            if(ids.length < other.count) {
+                ids = new long[other.ids.length];
+                latLon = new double[other.latLon.length];
+                headings = new float[other.headings.length];
+                styles = new int[other.styles.length];
+            }
+            System.arraycopy(other.ids, 0, ids, 0, other.count);
+            System.arraycopy(other.latLon, 0, latLon, 0, 2 * other.count);
+            System.arraycopy(other.headings, 0, headings, 0, other.count);
+            System.arraycopy(other.styles, 0, styles, 0, other.count);
+            count = other.count;
+            index.copyFrom(other.index);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.nautilus.fxmap.layer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ingestion stage between position feeds and a {@link MovingObjectLayer}: network threads {@link #offer offer}
+ * updates into a bounded ring buffer, the render pulse {@link #drainTo(MovingObjectLayer) drains} it in one pass.
+ *
+ * The ring holds primitive fields per slot and a sequence number that tells producers and the consumer whose turn
+ * the slot is, so any number of producers claim slots with one CAS and never lock or allocate. A full ring drops
+ * the update and counts it; offer returns false so a feed can slow down or skip the rest of a burst. The drain
+ * conflates: of several updates to one id only the latest is applied, found through a primitive id map.
+ *
+ * Producers call {@link #setOnData(Runnable) the data callback} only when the ring goes from drained to non-empty,
+ * not per update, so a feed of 50k updates/s costs one render request per pulse instead of a flood of
+ * Platform.runLater calls.
+ */
+public class PositionFeed {
+
+    private static final byte PUT = 0;
+    private static final byte REMOVE = 1;
+
+    private final int capacity;
+    private final int mask;
+    // slot i is free for the producer of position p when sequence == p, readable when sequence == p + 1
+    private final AtomicLongArray sequences;
+    private final long[] ids;
+    private final double[] lats;
+    private final double[] lons;
+    private final float[] headings;
+    private final int[] styles;
+    private final byte[] kinds;
+
+    private final AtomicLong tail = new AtomicLong();
+    // written by the consumer once per drain, read by producers in size()
+    private volatile long head;
+    private final AtomicBoolean signalled = new AtomicBoolean();
+    private volatile Runnable onData;
+
+    // slots of the latest update per id of the running drain, in order of first appearance; consumer only
+    private final LongIntMap latest;
+    private final int[] order;
+
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private long drained;
+    private long conflated;
+    private long drains;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public PositionFeed(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = this.capacity - 1;
+        sequences = new AtomicLongArray(this.capacity);
+        for(int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+        ids = new long[this.capacity];
+        lats = new double[this.capacity];
+        lons = new double[this.capacity];
+        headings = new float[this.capacity];
+        styles = new int[this.capacity];
+        kinds = new byte[this.capacity];
+        latest = new LongIntMap(this.capacity);
+        order = new int[this.capacity];
+    }
+
+    /**
+     * @param onData called on a producer thread when updates arrive in a drained feed, e.g. to request a render
+     */
+    public void setOnData(Runnable onData) {
+        this.onData = onData;
+    }
+
+    /**
+     * Queues an update. Never blocks; may be called from any number of threads.
+     * @return false if the feed is full and the update was dropped
+     */
+    public boolean offer(long id, double lat, double lon, float heading, int style) {
+        return offer(PUT, id, lat, lon, heading, style);
+    }
+
+    /**
+     * Queues the removal of an object, conflated with its updates like one.
+     */
+    public boolean offerRemove(long id) {
+        return offer(REMOVE, id, 0, 0, 0, 0);
+    }
+
+    private boolean offer(byte kind, long id, double lat, double lon, float heading, int style) {
+        offered.increment();
+        long position;
+        int slot;
+        for(;;) {
+            position = tail.get();
+            slot = (int) position & mask;
+            long sequence = sequences.get(slot);
+            if(sequence == position) {
+                if(tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if(sequence < position) {
+                // the consumer hasn't freed the slot of the last lap yet
+                dropped.increment();
+                return false;
+            }
+            // another producer took the position, try the next one
+        }
+        ids[slot] = id;
+        lats[slot] = lat;
+        lons[slot] = lon;
+        headings[slot] = heading;
+        styles[slot] = style;
+        kinds[slot] = kind;
+        // volatile, the signalled check below must not move before it
+        sequences.set(slot, position + 1);
+        if(!signalled.get() && signalled.compareAndSet(false, true)) {
+            Runnable r = onData;
+            if(r != null) {
+                r.run();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies everything queued so far to the layer, the latest update of each id only, and publishes it. Updates
+     * offered during the drain are left for the next one. Must be called from one thread, the FX thread for the
+     * layer of a {@link com.nautilus.fxmap.view.FXMapView}.
+     * @return updates applied after conflation
+     */
+    public int drainTo(MovingObjectLayer layer) {
+        signalled.set(false);
+        final long start = head;
+        final long end = tail.get();
+        long position = start;
+        int distinct = 0;
+        for(; position < end; position++) {
+            int slot = (int) position & mask;
+            if(sequences.get(slot) != position + 1) {
+                // claimed but not written yet, the producer signals again once it is
+                break;
+            }
+            int k = latest.get(ids[slot]);
+            if(k < 0) {
+                latest.put(ids[slot], distinct);
+                order[distinct++] = slot;
+            } else {
+                // the newer update replaces the older one where the id was first seen
+                order[k] = slot;
+            }
+        }
+        if(distinct > 0) {
+            layer.beginUpdate();
+            try {
+                for(int k = 0; k < distinct; k++) {
+                    int slot = order[k];
+                    if(kinds[slot] == REMOVE) {
+                        layer.remove(ids[slot]);
+                    } else {
+                        layer.put(ids[slot], lats[slot], lons[slot], headings[slot], styles[slot]);
+                    }
+                }
+            } finally {
+                layer.endUpdate();
+            }
+            layer.markPublished();
+        }
+        // free the slots only now, producers would overwrite them otherwise
+        for(long p = start; p < position; p++) {
+            sequences.lazySet((int) p & mask, p + capacity);
+        }
+        head = position;
+        final int count = (int) (position - start);
+        latest.clear();
+        drained += count;
+        conflated += count - distinct;
+        drains++;
+        return distinct;
+    }
+
+    /**
+     * @return updates waiting, approximate while producers run
+     */
+    public int size() {
+        // head first, a tail read after it can only be larger
+        final long h = head;
+        return (int) Math.max(0, Math.min(capacity, tail.get() - h));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return true if the feed is at least three quarters full, producers should slow down
+     */
+    public boolean isSaturated() {
+        return size() >= capacity - capacity / 4;
+    }
+
+    public long getOfferedCount() {
+        return offered.sum();
+    }
+
+    /**
+     * @return updates dropped because the feed was full
+     */
+    public long getDropCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return updates drained but not applied because a newer one of the same id came in the same drain
+     */
+    public long getConflatedCount() {
+        return conflated;
+    }
+
+    public long getDrainedCount() {
+        return drained;
+    }
+
+    public long getDrainCount() {
+        return drains;
+    }
+
+    @Override
+    public String toString() {
+        return "PositionFeed: capacity = " + capacity + ", offered = " + getOfferedCount() + ", dropped = "
+                + getDropCount() + ", drained = " + drained + ", conflated = " + conflated + ", drains = " + drains;
+    }
+}
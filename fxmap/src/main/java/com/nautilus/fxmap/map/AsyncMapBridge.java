@@ -0,0 +1,241 @@
+package com.nautilus.fxmap.map;
+
+import com.nautilus.fxmap.geo.GeoBoundary;
+import com.nautilus.fxmap.geo.GeoPoint;
+import com.nautilus.fxmap.geo.MapSource;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Thread safe facade of a {@link JSMapBridge}: every method may be called from any thread and returns a
+ * {@link CompletableFuture} instead of blocking on a {@link Platform#runLater(Runnable)} hand-off.
+ *
+ * Calls are queued and run on the FX thread in batches. However many threads call, there is at most one
+ * {@link Platform#runLater(Runnable)} per pulse: the first call after an idle period posts one, and while calls keep
+ * coming they are drained by an {@link AnimationTimer} once per pulse.
+ *
+ * The futures are completed on the FX thread, use the {@code *Async} methods of {@link CompletableFuture} for
+ * continuations that take longer than a moment.
+ */
+public class AsyncMapBridge {
+
+    private final JSMapBridge bridge;
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    // true from the runLater being posted until a pulse finds nothing to do
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private AnimationTimer timer;
+    private volatile long cameraTimeoutMillis = 5000;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder runLaters = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    AsyncMapBridge(JSMapBridge bridge) {
+        this.bridge = bridge;
+    }
+
+    /**
+     * @return the camera and extent as the page reported them last
+     */
+    public CompletableFuture<MapState> getState() {
+        return call(MapState::of);
+    }
+
+    public CompletableFuture<GeoBoundary> getExtent() {
+        return getState().thenApply(MapState::getExtent);
+    }
+
+    public CompletableFuture<GeoPoint> getCenter() {
+        return getState().thenApply(MapState::getCenter);
+    }
+
+    public CompletableFuture<Double> getZoomLevel() {
+        return call(JSMapBridge::getZoomLevel);
+    }
+
+    /**
+     * Moves the web map, see {@link JSMapBridge#setCamera(double, double, double, double)}.
+     * @return completed with the camera the page reports after the move; right away when no page is loaded.
+     *         Completed exceptionally with a {@link TimeoutException} if the page doesn't answer within
+     *         {@link #setCameraTimeoutMillis(long) the timeout}, or an {@link IllegalStateException} if the page is
+     *         reloaded first
+     */
+    public CompletableFuture<MapState> setCamera(double lat, double lon, double zoom, double rotation) {
+        CompletableFuture<MapState> result = new CompletableFuture<>();
+        submit(() -> {
+            bridge.setCamera(lat, lon, zoom, rotation);
+            if(bridge.webEngine == null) {
+                result.complete(MapState.of(bridge));
+            } else {
+                Object reply = bridge.afterCameraReply(() -> result.complete(MapState.of(bridge)),
+                        () -> result.completeExceptionally(
+                                new IllegalStateException("Page reloaded before the camera move was answered")));
+                // a page that never answers would otherwise keep every timed out call
+                result.whenComplete((state, e) -> {
+                    if(e instanceof TimeoutException) {
+                        submit(() -> bridge.removeCameraReply(reply), result);
+                    }
+                });
+            }
+        }, result);
+        return result.orTimeout(cameraTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param millis how long {@link #setCamera(double, double, double, double)} waits for the page, 5 s by default
+     */
+    public void setCameraTimeoutMillis(long millis) {
+        this.cameraTimeoutMillis = millis;
+    }
+
+    public long getCameraTimeoutMillis() {
+        return cameraTimeoutMillis;
+    }
+
+    public CompletableFuture<Void> switchMapSource(MapSource source) {
+        return call(b -> {
+            b.switchMapSource(source);
+            return null;
+        });
+    }
+
+    /**
+     * Queues the script, see {@link JSMapBridge#submitScript(String)}.
+     * @return completed once the script is queued with the bridge, not when it ran
+     */
+    public CompletableFuture<Void> submitScript(String script) {
+        return call(b -> {
+            b.submitScript(script);
+            return null;
+        });
+    }
+
+    /**
+     * Runs the script once the page is loaded, after everything queued before, and converts its result.
+     * @param type String, Boolean, Double, Integer, Long or Object; numbers are converted whatever JavaScript
+     *             returned them as
+     * @return completed exceptionally if the script fails or its result doesn't fit the type
+     */
+    public <T> CompletableFuture<T> evaluate(String script, Class<T> type) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        submit(() -> bridge.whenPageReady(() -> {
+            try {
+                result.complete(convert(bridge.executeScriptNow(script), type));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }), result);
+        return result;
+    }
+
+    /**
+     * Runs the function on the FX thread with the bridge.
+     */
+    public <T> CompletableFuture<T> call(Function<JSMapBridge, T> function) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        submit(() -> result.complete(function.apply(bridge)), result);
+        return result;
+    }
+
+    private void submit(Runnable task, CompletableFuture<?> result) {
+        calls.increment();
+        pending.add(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        if(scheduled.compareAndSet(false, true)) {
+            runLaters.increment();
+            Platform.runLater(this::drainAndWatch);
+        }
+    }
+
+    private void drainAndWatch() {
+        drain();
+        if(timer == null) {
+            timer = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    onPulse();
+                }
+            };
+        }
+        timer.start();
+    }
+
+    private void onPulse() {
+        if(pending.isEmpty()) {
+            scheduled.set(false);
+            // a call may have come in between the check and the reset and seen the flag still set
+            if(pending.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                timer.stop();
+                return;
+            }
+        }
+        drain();
+    }
+
+    private void drain() {
+        Runnable task;
+        boolean any = false;
+        while((task = pending.poll()) != null) {
+            task.run();
+            any = true;
+        }
+        if(any) {
+            batches.increment();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T convert(Object value, Class<T> type) {
+        if(value == null || type == Object.class || type.isInstance(value)) {
+            return (T) value;
+        }
+        if(value instanceof Number) {
+            Number n = (Number) value;
+            if(type == Double.class) {
+                return (T) Double.valueOf(n.doubleValue());
+            } else if(type == Integer.class) {
+                return (T) Integer.valueOf(n.intValue());
+            } else if(type == Long.class) {
+                return (T) Long.valueOf(n.longValue());
+            }
+        }
+        if(type == String.class) {
+            return (T) String.valueOf(value);
+        }
+        throw new ClassCastException("Script returned " + value.getClass().getName() + ", expected " + type.getName());
+    }
+
+    /**
+     * @return calls made on this facade
+     */
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    /**
+     * @return {@link Platform#runLater(Runnable)} hand-offs, at most one per pulse
+     */
+    public long getRunLaterCount() {
+        return runLaters.sum();
+    }
+
+    /**
+     * @return batches of calls run on the FX thread
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+}
@@ -0,0 +1,105 @@
+package com.nautilus.fxmap.map;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Collapses bursts of change events into at most one delivery per FX pulse, or per window if one is set.
+ * Only the fact that something changed is coalesced, the caller keeps the latest state itself, so the delivery
+ * always sees the newest values. A {@link #submitFinal() final} event, e.g. the end of a gesture, skips the window
+ * and is delivered on the next pulse. A pending event is never dropped: it goes out as soon as the window allows.
+ *
+ * Must be used on the FX thread.
+ */
+public class ChangeEventCoalescer {
+
+    private final Runnable delivery;
+    private long windowNanos;
+
+    private AnimationTimer timer;
+    private boolean running;
+    private boolean pending;
+    private boolean flush;
+    private long lastDeliveryNanos;
+    private boolean delivered;
+
+    private long receivedCount;
+    private long deliveredCount;
+
+    public ChangeEventCoalescer(Runnable delivery) {
+        this.delivery = delivery;
+    }
+
+    public void submit() {
+        receivedCount++;
+        pending = true;
+        start();
+    }
+
+    public void submitFinal() {
+        receivedCount++;
+        pending = true;
+        flush = true;
+        start();
+    }
+
+    private void start() {
+        if(running) {
+            return;
+        }
+        if(timer == null) {
+            // created lazily, an AnimationTimer needs the FX toolkit to be running
+            timer = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    onPulse(now);
+                }
+            };
+        }
+        running = true;
+        timer.start();
+    }
+
+    private void onPulse(long now) {
+        if(!pending) {
+            timer.stop();
+            running = false;
+            return;
+        }
+        if(!flush && delivered && now - lastDeliveryNanos < windowNanos) {
+            return;
+        }
+        pending = false;
+        flush = false;
+        delivered = true;
+        lastDeliveryNanos = now;
+        deliveredCount++;
+        delivery.run();
+        if(!pending) {
+            timer.stop();
+            running = false;
+        }
+    }
+
+    /**
+     * @param windowMillis minimum time between two deliveries, 0 to deliver at most once per pulse
+     */
+    public void setWindowMillis(long windowMillis) {
+        this.windowNanos = Math.max(0L, windowMillis) * 1_000_000L;
+    }
+
+    public long getWindowMillis() {
+        return windowNanos / 1_000_000L;
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+}
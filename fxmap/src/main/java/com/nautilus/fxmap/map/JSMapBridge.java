@@ -3,17 +3,23 @@ package com.nautilus.fxmap.map;
 import com.nautilus.fxmap.geo.GeoPoint;
 import com.nautilus.fxmap.geo.MapSource;
 import com.nautilus.fxmap.view.WebMapEventHandler;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.concurrent.Worker;
 import javafx.scene.web.WebEngine;
 import netscape.javascript.JSObject;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public abstract class JSMapBridge {
 
     protected double centerLat;
     protected double centerLng;
     protected double zoomLevel;
+    protected double rotation;
     protected GeoPoint southWest = new GeoPoint();
     protected GeoPoint northEast = new GeoPoint();
     protected String lastErrorMessage;
@@ -21,13 +27,49 @@ public abstract class JSMapBridge {
     protected WebEngine webEngine;
     protected WebMapEventHandler eventHandler;
 
-    protected final LinkedList<String> commands = new LinkedList<>();
+    public static final String PAN_TO = "document.panTo()";
+    public static final String BOUNDS_AND_ZOOM = "document.boundsAndZoom()";
+
+    protected final ScriptQueue commands = new ScriptQueue(() -> webEngine, "mapBridge.setLastErrorMessage");
+
+    // Camera moves go to the page as one document.setCamera(...) call when the page has it, the page answers with
+    // one fireCameraChanged(packed); older pages get panTo/boundsAndZoom which read the camera through upcalls
+    protected boolean cameraApiEnabled = true;
+    protected boolean pageHasCameraApi;
+    private boolean cameraZoomPending;
+    // a legacy camera script went out, the page doesn't answer it with fireCameraChanged
+    private boolean legacyCameraSent;
+    private long cameraSentNanos;
+    private long cameraRoundTrips;
+    private long cameraLatencyNanos;
+    private long maxCameraLatencyNanos;
+    // FX thread only: run with the next camera reply (or dropped with the page) and once the page is loaded
+    private final List<Runnable[]> cameraReplyTasks = new ArrayList<>();
+    private final List<Runnable> pageReadyTasks = new ArrayList<>();
+
+    private AsyncMapBridge async;
+    protected final StartupTimings startupTimings = new StartupTimings();
 
     protected MapSource mapSource;
 
+    private final Map<String, VectorOverlay> overlays = new HashMap<>();
+
+    private final ChangeListener<Worker.State> loadListener = this::onPageLoaded;
+    private WebEngine listenedEngine;
+    private int loadListenerCount;
+    // the source the loaded page shows and whether it can switch sources itself
+    protected MapSource pageSource;
+    protected boolean pageHasTileSourceApi;
+    private long lastSourceSwitchNanos;
+    private long sourceSwapCount;
+
+    // A pan makes the page report its extent many times per frame, listeners only hear about the latest one
+    protected final ChangeEventCoalescer changeEvents = new ChangeEventCoalescer(this::deliverChangeEvent);
+
     public JSMapBridge() {
         zoomLevel = 3.0;
         mapSource = MapSource.OSM;
+        commands.setAfterFlush(this::afterCommands);
     }
 
     /**
@@ -43,27 +85,33 @@ public abstract class JSMapBridge {
         webEngine.load(htmlSourceFile);
     }
 
+    /**
+     * Loads the page for the current map source. The load listener is registered once per engine, so loading again
+     * doesn't pile up listeners.
+     */
     public void initWebEngine() {
-        webEngine.getLoadWorker().stateProperty().addListener((ov, old, newState) -> {
-            if(newState == Worker.State.SUCCEEDED) {
-                JSObject window = (JSObject) webEngine.executeScript("window");
-                window.setMember("mapBridge", this);
-                webEngine.executeScript("document.boundsAndZoom()");
-
-                while(!commands.isEmpty()) {
-                    String command = commands.pop();
-                    webEngine.executeScript(command);
-                }
-
-                if(eventHandler != null) {
-                    eventHandler.onWebMapInitialized();
-                }
+        startupTimings.mark(StartupTimings.Phase.ENGINE_CREATED);
+        if(listenedEngine != webEngine) {
+            if(listenedEngine != null) {
+                listenedEngine.getLoadWorker().stateProperty().removeListener(loadListener);
+                loadListenerCount--;
             }
-        });
+            webEngine.getLoadWorker().stateProperty().addListener(loadListener);
+            loadListenerCount++;
+            listenedEngine = webEngine;
+        }
 
+        commands.setReady(false);
+        pageHasTileSourceApi = false;
+        // the old page won't answer anymore
+        legacyCameraSent = false;
+        cameraSentNanos = 0;
+        dropCameraReplyTasks();
         String htmlMapFile = "webmap";
+        pageSource = MapSource.GOOGLE;
         if(mapSource.equals(MapSource.OSM)) {
             htmlMapFile = "osm";
+            pageSource = MapSource.OSM;
         }
 
         /*
@@ -75,15 +123,116 @@ public abstract class JSMapBridge {
         webEngine.load(getClass().getResource("/html/" + htmlMapFile + ".html").toExternalForm());
     }
 
+    private void onPageLoaded(ObservableValue<? extends Worker.State> ov, Worker.State old, Worker.State newState) {
+        if(newState != Worker.State.SUCCEEDED) {
+            return;
+        }
+        startupTimings.mark(StartupTimings.Phase.PAGE_LOADED);
+        JSObject window = (JSObject) webEngine.executeScript("window");
+        window.setMember("mapBridge", this);
+        startupTimings.mark(StartupTimings.Phase.BRIDGE_INJECTED);
+        pageHasCameraApi = Boolean.TRUE.equals(
+                webEngine.executeScript("typeof document.setCamera === 'function'"));
+        pageHasTileSourceApi = Boolean.TRUE.equals(
+                webEngine.executeScript("typeof document.setTileSource === 'function'"));
+        requestCamera(true);
+        commands.setReady(true);
+        // what was queued while loading runs now, in order
+        commands.flush();
+        runAll(pageReadyTasks);
+
+        if(eventHandler != null) {
+            eventHandler.onWebMapInitialized();
+        }
+    }
+
+    /**
+     * Switches the tiles of the web map. When the loaded page can show the source, only its tile layer is swapped
+     * and the camera, overlays and everything else in the page stay; otherwise the page for the source is loaded.
+     * osm.html swaps between OSM and no tiles, Google maps always load webmap.html. A switch while a page is loading
+     * loads the page for the new source.
+     */
     public void switchMapSource(MapSource ms) {
         if(mapSource.equals(ms)) {
             return;
         }
         mapSource = ms;
+        if(webEngine == null || ms == MapSource.NATIVE) {
+            // Nothing is loaded yet (or the native renderer draws the map), the source is used on the next load
+            return;
+        }
+        if(pageHasTileSourceApi && commands.isReady()) {
+            final long start = System.nanoTime();
+            Object swapped = executeScriptNow(tileSourceScript(ms));
+            lastSourceSwitchNanos = System.nanoTime() - start;
+            if(Boolean.TRUE.equals(swapped)) {
+                pageSource = ms;
+                sourceSwapCount++;
+                return;
+            }
+        }
         initWebEngine();
     }
 
+    /**
+     * Shows XYZ tiles from the given URL template in the loaded page, e.g. a
+     * {@link com.nautilus.fxmap.tile.web.TileProtocol} store. Needs a page with a tile layer (osm.html).
+     * @param urlTemplate with {z}, {x} and {y} placeholders
+     */
+    public void setTileUrl(String urlTemplate) {
+        submitScript("document.setTileUrl('" + urlTemplate.replace("\\", "\\\\").replace("'", "\\'") + "')");
+    }
+
+    protected String tileSourceScript(MapSource ms) {
+        return "document.setTileSource('" + ms.name() + "')";
+    }
+
+    /**
+     * @return how many load listeners the bridge has on the engine, 1 once a page was loaded
+     */
+    public int getLoadListenerCount() {
+        return loadListenerCount;
+    }
+
+    /**
+     * @return duration of the last map source switch done inside the loaded page
+     */
+    public double getLastSourceSwitchMillis() {
+        return lastSourceSwitchNanos / 1e6;
+    }
+
+    /**
+     * @return map source switches done inside the loaded page, without loading a page
+     */
+    public long getSourceSwapCount() {
+        return sourceSwapCount;
+    }
+
+    /**
+     * Runs the script and returns its result once the page is loaded, after everything queued with
+     * {@link #submitScript(String)}. Before that the script is queued and null is returned. {@link #PAN_TO} and
+     * {@link #BOUNDS_AND_ZOOM} go through the camera path and return null. Call it on the FX thread; prefer
+     * {@link #submitScript(String)} unless the result is needed.
+     */
     public Object executeScript(String script) {
+        if(webEngine == null || !commands.isReady()) {
+            submitScript(script);
+            return null;
+        }
+        if(PAN_TO.equals(script) || BOUNDS_AND_ZOOM.equals(script)) {
+            submitScript(script);
+            commands.flush();
+            return null;
+        }
+        return executeScriptNow(script);
+    }
+
+    /**
+     * Queues the script; queued scripts run in order, batched once per FX pulse after the page has loaded.
+     * {@link #PAN_TO} and {@link #BOUNDS_AND_ZOOM} are camera moves, only the last queued one runs, see
+     * {@link #setCamera(double, double, double, double)}.
+     */
+    public void submitScript(String script) {
         if(webEngine == null) {
             final GeoPoint centerPoint = new GeoPoint(centerLat, centerLng);
             if(northEast.equals(southWest) && !southWest.equals(centerPoint)) {
@@ -93,20 +242,292 @@ public abstract class JSMapBridge {
                 southWest.setLat(centerLat);
                 southWest.setLon(centerLng);
             }
-            commands.push(script);
-            return null;
         }
+        if(PAN_TO.equals(script)) {
+            requestCamera(false);
+        } else if(BOUNDS_AND_ZOOM.equals(script)) {
+            requestCamera(true);
+        } else {
+            commands.submit(script);
+        }
+    }
+
+    /**
+     * Runs the script right away, after everything that is queued, and returns its result. Must be called on the
+     * FX thread once the page is loaded; prefer {@link #submitScript(String)} unless the result is needed.
+     */
+    public Object executeScriptNow(String script) {
+        commands.flush();
         return webEngine.executeScript(script);
     }
 
+    /**
+     * Moves the web map in one call.
+     * @param zoom the zoom level, NaN to keep the current one
+     * @param rotation in radians clockwise, NaN to keep the current one
+     */
+    public void setCamera(double lat, double lon, double zoom, double rotation) {
+        centerLat = lat;
+        centerLng = lon;
+        if(!Double.isNaN(zoom)) {
+            zoomLevel = zoom;
+        }
+        if(!Double.isNaN(rotation)) {
+            this.rotation = rotation;
+        }
+        requestCamera(!Double.isNaN(zoom));
+    }
+
+    protected void requestCamera(boolean withZoom) {
+        cameraZoomPending |= withZoom;
+        commands.submitCamera(this::cameraScript);
+    }
+
+    private String cameraScript() {
+        final boolean withZoom = cameraZoomPending;
+        cameraZoomPending = false;
+        cameraSentNanos = System.nanoTime();
+        if(!cameraApiEnabled || !pageHasCameraApi) {
+            legacyCameraSent = true;
+            return withZoom ? BOUNDS_AND_ZOOM : PAN_TO;
+        }
+        return "document.setCamera(" + centerLng + ", " + centerLat + ", " + (withZoom ? zoomLevel : Double.NaN)
+                + ", " + rotation + ")";
+    }
+
+    /**
+     * Called by the page once per camera move with
+     * {@code "minLon,minLat,maxLon,maxLat,zoom,rotation,centerLon,centerLat"}.
+     */
+    public void fireCameraChanged(String packed) {
+        String[] values = packed.split(",");
+        if(values.length < 8) {
+            lastErrorMessage = "Invalid camera: " + packed;
+            return;
+        }
+        try {
+            southWest.setLocation(Double.parseDouble(values[0]), Double.parseDouble(values[1]));
+            northEast.setLocation(Double.parseDouble(values[2]), Double.parseDouble(values[3]));
+            zoomLevel = Double.parseDouble(values[4]);
+            rotation = Double.parseDouble(values[5]);
+            centerLng = Double.parseDouble(values[6]);
+            centerLat = Double.parseDouble(values[7]);
+        } catch (NumberFormatException e) {
+            lastErrorMessage = "Invalid camera: " + packed;
+            return;
+        }
+        onCameraReply();
+        changeEvents.submitFinal();
+    }
+
+    private void onCameraReply() {
+        startupTimings.mark(StartupTimings.Phase.FIRST_EXTENT);
+        if(cameraSentNanos != 0) {
+            long latency = System.nanoTime() - cameraSentNanos;
+            cameraSentNanos = 0;
+            cameraRoundTrips++;
+            cameraLatencyNanos += latency;
+            maxCameraLatencyNanos = Math.max(maxCameraLatencyNanos, latency);
+        }
+        if(cameraReplyTasks.isEmpty()) {
+            return;
+        }
+        List<Runnable[]> run = new ArrayList<>(cameraReplyTasks);
+        cameraReplyTasks.clear();
+        for(Runnable[] task: run) {
+            task[0].run();
+        }
+    }
+
+    // legacy scripts move the map and read the camera through upcalls while they run, so they are done here
+    private void afterCommands() {
+        if(legacyCameraSent) {
+            legacyCameraSent = false;
+            onCameraReply();
+        }
+    }
+
+    private void dropCameraReplyTasks() {
+        if(cameraReplyTasks.isEmpty()) {
+            return;
+        }
+        List<Runnable[]> dropped = new ArrayList<>(cameraReplyTasks);
+        cameraReplyTasks.clear();
+        for(Runnable[] task: dropped) {
+            task[1].run();
+        }
+    }
+
+    /**
+     * Runs the task with the page's answer to the next camera move. FX thread only.
+     * @param onDropped run instead if the page is reloaded before it answers
+     * @return the handle for {@link #removeCameraReply(Object)}
+     */
+    Object afterCameraReply(Runnable task, Runnable onDropped) {
+        Runnable[] reply = {task, onDropped};
+        cameraReplyTasks.add(reply);
+        return reply;
+    }
+
+    /**
+     * Forgets a task that is no longer waited for, e.g. timed out; neither of its runnables runs. FX thread only.
+     */
+    void removeCameraReply(Object reply) {
+        cameraReplyTasks.remove(reply);
+    }
+
+    /**
+     * Runs the task now if the page is loaded, otherwise once it is. FX thread only.
+     */
+    void whenPageReady(Runnable task) {
+        if(commands.isReady()) {
+            task.run();
+        } else {
+            pageReadyTasks.add(task);
+        }
+    }
+
+    private static void runAll(List<Runnable> tasks) {
+        if(tasks.isEmpty()) {
+            return;
+        }
+        List<Runnable> run = new ArrayList<>(tasks);
+        tasks.clear();
+        for(Runnable task: run) {
+            task.run();
+        }
+    }
+
+    /**
+     * @return the facade for calling the bridge from other threads
+     */
+    public synchronized AsyncMapBridge async() {
+        if(async == null) {
+            async = new AsyncMapBridge(this);
+        }
+        return async;
+    }
+
+    /**
+     * @param name letters, digits, '_' and '-'; the layer is created in the page with its first change
+     * @return the vector layer with the given name
+     */
+    public VectorOverlay getOverlay(String name) {
+        if(!name.matches("[A-Za-z0-9_-]+")) {
+            throw new IllegalArgumentException("Invalid overlay name: " + name);
+        }
+        synchronized (overlays) {
+            return overlays.computeIfAbsent(name, n -> new VectorOverlay(n, this));
+        }
+    }
+
+    /**
+     * @param enabled false to move the camera with the legacy panTo/boundsAndZoom scripts, e.g. to compare the
+     *                {@link #getMeanCameraLatencyMillis() latency} of both
+     */
+    public void setCameraApiEnabled(boolean enabled) {
+        this.cameraApiEnabled = enabled;
+    }
+
+    public boolean isCameraApiEnabled() {
+        return cameraApiEnabled;
+    }
+
+    /**
+     * @return camera moves sent to the page that it answered
+     */
+    public long getCameraRoundTrips() {
+        return cameraRoundTrips;
+    }
+
+    /**
+     * @return mean time from sending a camera move until the page reported the new extent
+     */
+    public double getMeanCameraLatencyMillis() {
+        return cameraRoundTrips == 0 ? 0.0 : cameraLatencyNanos / 1e6 / cameraRoundTrips;
+    }
+
+    public double getMaxCameraLatencyMillis() {
+        return maxCameraLatencyNanos / 1e6;
+    }
+
+    public void resetCameraLatency() {
+        cameraRoundTrips = 0;
+        cameraLatencyNanos = 0;
+        maxCameraLatencyNanos = 0;
+    }
+
+    /**
+     * @return scripts passed to {@link #submitScript(String)}
+     */
+    public long getScriptsSubmitted() {
+        return commands.getSubmittedCount();
+    }
+
+    /**
+     * @return scripts that ran in the page, superseded camera commands are not counted
+     */
+    public long getScriptsExecuted() {
+        return commands.getExecutedCount();
+    }
+
+    /**
+     * Called by the page while the map moves. The extent is taken right away, the event handler is notified at
+     * most once per pulse (or {@link #setChangeEventWindowMillis(long) window}) with the latest extent.
+     */
     public void fireChangeEvent(double x1, double y1, double x2, double y2) {
         southWest.setLocation(x1, y1);
         northEast.setLocation(x2, y2);
+        startupTimings.mark(StartupTimings.Phase.FIRST_EXTENT);
+        changeEvents.submit();
+    }
+
+    /**
+     * Called by the page when a move is over, e.g. on moveend. The event handler is notified on the next pulse
+     * whatever the window is, so the last extent of a gesture always gets through.
+     */
+    public void fireMoveEndEvent(double x1, double y1, double x2, double y2) {
+        southWest.setLocation(x1, y1);
+        northEast.setLocation(x2, y2);
+        onCameraReply();
+        changeEvents.submitFinal();
+    }
+
+    protected void deliverChangeEvent() {
         if(eventHandler != null) {
             eventHandler.onWebMapPropertiesChanged();
         }
     }
 
+    public void setChangeEventWindowMillis(long windowMillis) {
+        changeEvents.setWindowMillis(windowMillis);
+    }
+
+    public long getChangeEventWindowMillis() {
+        return changeEvents.getWindowMillis();
+    }
+
+    /**
+     * @return change events reported by the page
+     */
+    public long getChangeEventsReceived() {
+        return changeEvents.getReceivedCount();
+    }
+
+    /**
+     * @return change events passed on to the event handler
+     */
+    public long getChangeEventsDelivered() {
+        return changeEvents.getDeliveredCount();
+    }
+
+    /**
+     * @return how long the first web map took, by phase
+     */
+    public StartupTimings getStartupTimings() {
+        return startupTimings;
+    }
+
     public void setEventHandler(WebMapEventHandler handler) {
         this.eventHandler = handler;
     }
@@ -188,6 +609,10 @@ public abstract class JSMapBridge {
         return mapSource;
     }
 
+    public double getRotation() {
+        return rotation;
+    }
+
     public double getZoomLevel() {
         return zoomLevel;
     }
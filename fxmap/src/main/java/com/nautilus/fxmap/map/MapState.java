@@ -0,0 +1,71 @@
+package com.nautilus.fxmap.map;
+
+import com.nautilus.fxmap.geo.GeoBoundary;
+import com.nautilus.fxmap.geo.GeoPoint;
+
+/**
+ * Immutable snapshot of the web map camera, taken on the FX thread and safe to pass to other threads.
+ */
+public final class MapState {
+
+    private final double centerLat;
+    private final double centerLon;
+    private final double zoomLevel;
+    private final double rotation;
+    private final double minLon;
+    private final double minLat;
+    private final double maxLon;
+    private final double maxLat;
+
+    public MapState(double centerLat, double centerLon, double zoomLevel, double rotation,
+                    double minLon, double minLat, double maxLon, double maxLat) {
+        this.centerLat = centerLat;
+        this.centerLon = centerLon;
+        this.zoomLevel = zoomLevel;
+        this.rotation = rotation;
+        this.minLon = minLon;
+        this.minLat = minLat;
+        this.maxLon = maxLon;
+        this.maxLat = maxLat;
+    }
+
+    static MapState of(JSMapBridge bridge) {
+        GeoPoint sw = bridge.getSouthWest();
+        GeoPoint ne = bridge.getNorthEast();
+        return new MapState(bridge.getCenterLat(), bridge.getCenterLng(), bridge.getZoomLevel(), bridge.getRotation(),
+                sw.getLon(), sw.getLat(), ne.getLon(), ne.getLat());
+    }
+
+    public double getCenterLat() {
+        return centerLat;
+    }
+
+    public double getCenterLon() {
+        return centerLon;
+    }
+
+    public GeoPoint getCenter() {
+        return new GeoPoint(centerLat, centerLon);
+    }
+
+    public double getZoomLevel() {
+        return zoomLevel;
+    }
+
+    public double getRotation() {
+        return rotation;
+    }
+
+    /**
+     * @return the visible extent, x is the longitude and y the latitude
+     */
+    public GeoBoundary getExtent() {
+        return new GeoBoundary(minLon, maxLon, minLat, maxLat);
+    }
+
+    @Override
+    public String toString() {
+        return "MapState: Center(" + centerLon + ", " + centerLat + "); Zoom = " + zoomLevel + ", Rotation = "
+                + rotation + ", Bounds sw: (" + minLon + ", " + minLat + ") ne: (" + maxLon + ", " + maxLat + ")";
+    }
+}
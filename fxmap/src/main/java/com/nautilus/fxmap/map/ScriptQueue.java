@@ -0,0 +1,239 @@
+package com.nautilus.fxmap.map;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.web.WebEngine;
+import netscape.javascript.JSException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Queue of scripts for a {@link WebEngine}. Scripts run in the order they were submitted, everything submitted
+ * within one FX pulse goes to the engine as one {@link WebEngine#executeScript(String)} call, and nothing runs
+ * before the page is {@link #setReady(boolean) ready}.
+ *
+ * Camera commands are superseded by the next one: only the last camera command is kept, at the position of the
+ * newest submission. Its script is built when the batch runs, so it always carries the latest camera. The same
+ * mechanism is available for other state with {@link #submitLatest(Object, Supplier)}.
+ *
+ * Scripts may be submitted from any thread.
+ */
+public class ScriptQueue {
+
+    private static final Object CAMERA = new Object();
+
+    private final Supplier<WebEngine> engine;
+    private final String errorHandler;
+    private final List<Command> queue = new ArrayList<>();
+    private boolean ready;
+
+    private AnimationTimer timer;
+    private boolean scheduled;
+    private Runnable afterFlush;
+
+    private long submittedCount;
+    private long executedCount;
+    private long batchCount;
+
+    /**
+     * @param errorHandler JS function name called with the error when a script of a batch fails, e.g.
+     *                     {@code mapBridge.setLastErrorMessage}; the other scripts of the batch still run
+     */
+    public ScriptQueue(Supplier<WebEngine> engine, String errorHandler) {
+        this.engine = engine;
+        this.errorHandler = errorHandler;
+    }
+
+    public void submit(String script) {
+        submit(new Command(script, null, null));
+    }
+
+    /**
+     * Queues the camera command, replacing the one that is queued.
+     * @param script called on the FX thread when the batch runs
+     */
+    public void submitCamera(Supplier<String> script) {
+        submitLatest(CAMERA, script);
+    }
+
+    /**
+     * Queues a command that replaces the queued command with the same key, e.g. the pending changes of one layer.
+     * @param script called on the FX thread when the batch runs, may return null if there is nothing to run anymore
+     */
+    public void submitLatest(Object key, Supplier<String> script) {
+        submit(new Command(null, key, script));
+    }
+
+    private void submit(Command command) {
+        synchronized (queue) {
+            submittedCount++;
+            if(command.key != null) {
+                for(int i = queue.size() - 1; i >= 0; i--) {
+                    if(command.key.equals(queue.get(i).key)) {
+                        queue.remove(i);
+                        break;
+                    }
+                }
+            }
+            queue.add(command);
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        synchronized (queue) {
+            if(scheduled || !ready) {
+                return;
+            }
+            scheduled = true;
+        }
+        if(Platform.isFxApplicationThread()) {
+            startTimer();
+        } else {
+            Platform.runLater(this::startTimer);
+        }
+    }
+
+    private void startTimer() {
+        if(timer == null) {
+            timer = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    stop();
+                    synchronized (queue) {
+                        scheduled = false;
+                    }
+                    flush();
+                }
+            };
+        }
+        timer.start();
+    }
+
+    /**
+     * Runs everything that is queued now, as one script. Must be called on the FX thread.
+     */
+    public void flush() {
+        WebEngine webEngine = engine.get();
+        List<Command> batch;
+        synchronized (queue) {
+            if(!ready || queue.isEmpty() || webEngine == null) {
+                return;
+            }
+            batch = new ArrayList<>(queue);
+            queue.clear();
+        }
+        // built outside the lock, a command may queue more work for the next pulse
+        String script = null;
+        StringBuilder sb = null;
+        int count = 0;
+        for(Command c: batch) {
+            String s = c.script();
+            if(s == null) {
+                continue;
+            }
+            if(script == null) {
+                script = s;
+            } else {
+                if(sb == null) {
+                    sb = new StringBuilder();
+                    guard(sb, script);
+                }
+                guard(sb, s);
+            }
+            count++;
+        }
+        if(script == null) {
+            return;
+        }
+        synchronized (queue) {
+            executedCount += count;
+            batchCount++;
+        }
+        try {
+            webEngine.executeScript(sb != null ? sb.toString() : script);
+        } catch (JSException e) {
+            e.printStackTrace();
+        }
+        if(afterFlush != null) {
+            afterFlush.run();
+        }
+    }
+
+    /**
+     * @param afterFlush run on the FX thread after each batch reached the engine
+     */
+    public void setAfterFlush(Runnable afterFlush) {
+        this.afterFlush = afterFlush;
+    }
+
+    private void guard(StringBuilder sb, String script) {
+        sb.append("try {").append(script).append(";} catch (e) {").append(errorHandler).append("(String(e));}\n");
+    }
+
+    /**
+     * While not ready, scripts are only queued; becoming ready schedules what is queued.
+     */
+    public void setReady(boolean ready) {
+        synchronized (queue) {
+            this.ready = ready;
+        }
+        if(ready) {
+            schedule();
+        }
+    }
+
+    public boolean isReady() {
+        synchronized (queue) {
+            return ready;
+        }
+    }
+
+    public int size() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    public long getSubmittedCount() {
+        synchronized (queue) {
+            return submittedCount;
+        }
+    }
+
+    /**
+     * @return scripts that reached the engine, less than submitted when camera commands were collapsed
+     */
+    public long getExecutedCount() {
+        synchronized (queue) {
+            return executedCount;
+        }
+    }
+
+    /**
+     * @return calls to {@link WebEngine#executeScript(String)}
+     */
+    public long getBatchCount() {
+        synchronized (queue) {
+            return batchCount;
+        }
+    }
+
+    private static final class Command {
+        final String script;
+        final Object key;
+        final Supplier<String> supplier;
+
+        Command(String script, Object key, Supplier<String> supplier) {
+            this.script = script;
+            this.key = key;
+            this.supplier = supplier;
+        }
+
+        String script() {
+            return supplier != null ? supplier.get() : script;
+        }
+    }
+}
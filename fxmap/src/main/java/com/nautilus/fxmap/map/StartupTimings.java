@@ -0,0 +1,106 @@
+package com.nautilus.fxmap.map;
+
+import java.util.Arrays;
+
+/**
+ * Time to the first web map, by phase. The clock starts with {@link #begin()}, before the WebView is created, and
+ * every phase is recorded once, the first time it is reached; loading another page later doesn't change the numbers.
+ * Thread safe.
+ */
+public final class StartupTimings {
+
+    public enum Phase {
+        /** WebView and engine are created and the page load is started */
+        ENGINE_CREATED,
+        /** osm.html and ol.js are loaded and the script ran */
+        PAGE_LOADED,
+        /** {@code mapBridge} is set in the page */
+        BRIDGE_INJECTED,
+        /** the page reported its first extent */
+        FIRST_EXTENT
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final long[] nanos = new long[PHASES.length];
+    private long startNanos;
+    private volatile boolean complete;
+
+    /**
+     * Starts the clock, unless it is already running.
+     */
+    public synchronized void begin() {
+        if(startNanos == 0) {
+            startNanos = System.nanoTime();
+        }
+    }
+
+    void mark(Phase phase) {
+        if(complete) {
+            return;
+        }
+        synchronized (this) {
+            begin();
+            int i = phase.ordinal();
+            if(nanos[i] == 0) {
+                nanos[i] = Math.max(1, System.nanoTime() - startNanos);
+                complete = i == PHASES.length - 1;
+            }
+        }
+    }
+
+    /**
+     * @return time from {@link #begin()} until the phase was reached, -1 if it wasn't yet
+     */
+    public synchronized double getMillis(Phase phase) {
+        long n = nanos[phase.ordinal()];
+        return n == 0 ? -1.0 : n / 1e6;
+    }
+
+    /**
+     * @return time from the previous phase until this one, -1 if it wasn't reached yet
+     */
+    public synchronized double getPhaseMillis(Phase phase) {
+        int i = phase.ordinal();
+        if(nanos[i] == 0) {
+            return -1.0;
+        }
+        long previous = 0;
+        for(int j = i - 1; j >= 0 && previous == 0; j--) {
+            previous = nanos[j];
+        }
+        return (nanos[i] - previous) / 1e6;
+    }
+
+    /**
+     * @return time to the first extent, -1 while the map isn't up
+     */
+    public double getTimeToFirstMapMillis() {
+        return getMillis(Phase.FIRST_EXTENT);
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public synchronized void reset() {
+        startNanos = 0;
+        Arrays.fill(nanos, 0);
+        complete = false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("StartupTimings:");
+        for(Phase phase: PHASES) {
+            sb.append(' ').append(phase).append(" = ");
+            double millis = getPhaseMillis(phase);
+            if(millis < 0) {
+                sb.append('-');
+            } else {
+                sb.append(String.format("%.1fms", millis));
+            }
+        }
+        return sb.append(", first map after ").append(String.format("%.1fms", getTimeToFirstMapMillis())).toString();
+    }
+}
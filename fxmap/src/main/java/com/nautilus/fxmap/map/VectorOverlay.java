@@ -0,0 +1,189 @@
+package com.nautilus.fxmap.map;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Vector layer on the web map fed from Java, e.g. vehicles and routes. Only changes are sent: features are added,
+ * updated or removed by id, and all changes made during a pulse go to the page in one call, however many features
+ * changed. A call carries at most {@link #setMaxBytesPerCall(int) a byte budget}, what doesn't fit goes with the
+ * next pulse.
+ *
+ * Changes are sent as one base64 encoded little endian Float64Array, one record per change:
+ * <pre>
+ *   upsert  id, 0, geometry type, style, point count, x1, y1, x2, y2 ...
+ *   remove  id, 1
+ * </pre>
+ * Coordinates are projected to EPSG:3857 on the Java side so the page doesn't have to. Ids must be below 2^53 to
+ * survive the trip through a double. Thread safe.
+ */
+public class VectorOverlay {
+
+    public static final int POINT = 0;
+    public static final int LINE = 1;
+    public static final int POLYGON = 2;
+
+    private static final double EARTH_RADIUS = 6378137.0;
+    private static final double MAX_LATITUDE = 85.0511287798;
+
+    private final String name;
+    private final JSMapBridge bridge;
+    // id -> feature to upsert, or null to remove; keeps the order of the changes
+    private final LinkedHashMap<Long, Feature> changes = new LinkedHashMap<>();
+    private int maxBytesPerCall = 4 * 1024 * 1024;
+
+    private long callCount;
+    private long sentChanges;
+
+    VectorOverlay(String name, JSMapBridge bridge) {
+        this.name = name;
+        this.bridge = bridge;
+    }
+
+    /**
+     * Adds the feature or replaces the one with the same id.
+     * @param lonLat interleaved longitude, latitude pairs in degrees
+     * @param style index into the page's overlay styles
+     */
+    public void put(long id, int geometryType, double[] lonLat, int style) {
+        if(lonLat.length < 2 || (lonLat.length & 1) != 0) {
+            throw new IllegalArgumentException("Need lon/lat pairs, got " + lonLat.length + " values");
+        }
+        synchronized (changes) {
+            changes.remove(id);
+            changes.put(id, new Feature(geometryType, lonLat.clone(), style));
+        }
+        schedule();
+    }
+
+    public void putPoint(long id, double lat, double lon, int style) {
+        put(id, POINT, new double[] {lon, lat}, style);
+    }
+
+    public void remove(long id) {
+        synchronized (changes) {
+            changes.remove(id);
+            changes.put(id, null);
+        }
+        schedule();
+    }
+
+    /**
+     * Removes all features of the layer.
+     */
+    public void clear() {
+        synchronized (changes) {
+            changes.clear();
+        }
+        bridge.submitScript("document.clearOverlay('" + name + "')");
+    }
+
+    /**
+     * @param color a CSS color
+     */
+    public void setStyle(int style, String color, double width) {
+        bridge.submitScript("document.setOverlayStyle('" + name + "', " + style + ", '" + color.replace("'", "")
+                + "', " + width + ")");
+    }
+
+    private void schedule() {
+        bridge.commands.submitLatest(this, this::nextCall);
+    }
+
+    /**
+     * @return the script sending as many pending changes as fit into one call, null if there are none
+     */
+    private String nextCall() {
+        ByteBuffer buffer;
+        int count = 0;
+        boolean more;
+        synchronized (changes) {
+            if(changes.isEmpty()) {
+                return null;
+            }
+            int size = 0;
+            for(Map.Entry<Long, Feature> e: changes.entrySet()) {
+                int recordSize = e.getValue() == null ? 16 : 40 + e.getValue().lonLat.length * 8;
+                if(count > 0 && size + recordSize > maxBytesPerCall) {
+                    break;
+                }
+                size += recordSize;
+                count++;
+            }
+            buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            Iterator<Map.Entry<Long, Feature>> it = changes.entrySet().iterator();
+            for(int i = 0; i < count; i++) {
+                Map.Entry<Long, Feature> e = it.next();
+                it.remove();
+                buffer.putDouble(e.getKey());
+                Feature f = e.getValue();
+                if(f == null) {
+                    buffer.putDouble(1);
+                    continue;
+                }
+                buffer.putDouble(0).putDouble(f.geometryType).putDouble(f.style).putDouble(f.lonLat.length / 2);
+                for(int j = 0; j < f.lonLat.length; j += 2) {
+                    buffer.putDouble(f.lonLat[j] * Math.PI / 180.0 * EARTH_RADIUS);
+                    double lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, f.lonLat[j + 1]));
+                    buffer.putDouble(EARTH_RADIUS * Math.log(Math.tan(Math.PI / 4.0 + Math.toRadians(lat) / 2.0)));
+                }
+            }
+            more = !changes.isEmpty();
+            callCount++;
+            sentChanges += count;
+        }
+        if(more) {
+            schedule();
+        }
+        return "document.applyOverlay('" + name + "', '" + Base64.getEncoder().encodeToString(buffer.array()) + "')";
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPendingCount() {
+        synchronized (changes) {
+            return changes.size();
+        }
+    }
+
+    public int getMaxBytesPerCall() {
+        return maxBytesPerCall;
+    }
+
+    public void setMaxBytesPerCall(int maxBytesPerCall) {
+        this.maxBytesPerCall = maxBytesPerCall;
+    }
+
+    /**
+     * @return calls made into the page, at most one per pulse
+     */
+    public long getCallCount() {
+        synchronized (changes) {
+            return callCount;
+        }
+    }
+
+    public long getSentChangeCount() {
+        synchronized (changes) {
+            return sentChanges;
+        }
+    }
+
+    private static final class Feature {
+        final int geometryType;
+        final double[] lonLat;
+        final int style;
+
+        Feature(int geometryType, double[] lonLat, int style) {
+            this.geometryType = geometryType;
+            this.lonLat = lonLat;
+            this.style = style;
+        }
+    }
+}
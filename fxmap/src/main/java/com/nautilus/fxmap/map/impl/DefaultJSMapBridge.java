@@ -4,11 +4,7 @@ import com.nautilus.fxmap.geo.GeoPoint;
 import com.nautilus.fxmap.geo.MapSource;
 import com.nautilus.fxmap.map.JSMapBridge;
 import com.nautilus.fxmap.view.WebMapEventHandler;
-import javafx.concurrent.Worker;
 import javafx.scene.web.WebEngine;
-import netscape.javascript.JSObject;
-
-import java.util.LinkedList;
 
 public class DefaultJSMapBridge extends JSMapBridge {
 
@@ -17,70 +13,6 @@ public class DefaultJSMapBridge extends JSMapBridge {
         mapSource = MapSource.OSM;
     }
 
-    public void initWebEngine() {
-        webEngine.getLoadWorker().stateProperty().addListener((ov, old, newState) -> {
-            if(newState == Worker.State.SUCCEEDED) {
-                JSObject window = (JSObject) webEngine.executeScript("window");
-                window.setMember("mapBridge", this);
-                webEngine.executeScript("document.boundsAndZoom()");
-
-                while(!commands.isEmpty()) {
-                    String command = commands.pop();
-                    webEngine.executeScript(command);
-                }
-
-                if(eventHandler != null) {
-                    eventHandler.onWebMapInitialized();
-                }
-            }
-        });
-
-        String htmlMapFile = "webmap";
-        if(mapSource.equals(MapSource.OSM)) {
-            htmlMapFile = "osm";
-        }
-
-        /*
-         * TODO: When running the application from jar file, WebEngine could not load URL with parameters.
-         *       The work-around solution is removing parameters from the URL
-         */
-//        webEngine.load(getClass().getResource("/html/" + htmlMapFile + ".html").toExternalForm() +
-//                "?zoom=" + zoomLevel + "&lat=" + centerLat + "&lng=" + centerLng);
-        webEngine.load(getClass().getResource("/html/" + htmlMapFile + ".html").toExternalForm());
-    }
-
-    public void switchMapSource(MapSource ms) {
-        if(mapSource.equals(ms)) {
-            return;
-        }
-        mapSource = ms;
-        initWebEngine();
-    }
-
-    public Object executeScript(String script) {
-        if(webEngine == null) {
-            final GeoPoint centerPoint = new GeoPoint(centerLat, centerLng);
-            if(northEast.equals(southWest) && !southWest.equals(centerPoint)) {
-                northEast.setLat(centerLat);
-                northEast.setLon(centerLng);
-
-                southWest.setLat(centerLat);
-                southWest.setLon(centerLng);
-            }
-            commands.push(script);
-            return null;
-        }
-        return webEngine.executeScript(script);
-    }
-
-    public void fireChangeEvent(double x1, double y1, double x2, double y2) {
-        southWest.setLocation(x1, y1);
-        northEast.setLocation(x2, y2);
-        if(eventHandler != null) {
-            eventHandler.onWebMapPropertiesChanged();
-        }
-    }
-
     public void setEventHandler(WebMapEventHandler handler) {
         this.eventHandler = handler;
     }
@@ -0,0 +1,83 @@
+package com.nautilus.fxmap.tile;
+
+import javafx.scene.image.Image;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+public final class TileImages {
+
+    private TileImages() { }
+
+    /**
+     * Decodes an encoded tile. Safe to call off the FX thread. The buffer's position is left untouched.
+     * @return the image, or null if the bytes could not be decoded
+     */
+    public static Image decode(ByteBuffer data) {
+        if(data == null) {
+            return null;
+        }
+        Image image = new Image(asInputStream(data));
+        return image.isError() ? null : image;
+    }
+
+    public static InputStream asInputStream(ByteBuffer data) {
+        if(data.hasArray()) {
+            return new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        return new ByteBufferInputStream(data.duplicate());
+    }
+
+    /**
+     * @return the MIME type of the encoded tile, guessed from its first bytes
+     */
+    public static String contentType(ByteBuffer data) {
+        int p = data.position();
+        if(data.remaining() >= 4 && (data.get(p) & 0xFF) == 0x89 && data.get(p + 1) == 'P' && data.get(p + 2) == 'N') {
+            return "image/png";
+        }
+        if(data.remaining() >= 3 && (data.get(p) & 0xFF) == 0xFF && (data.get(p + 1) & 0xFF) == 0xD8) {
+            return "image/jpeg";
+        }
+        if(data.remaining() >= 12 && data.get(p) == 'R' && data.get(p + 8) == 'W' && data.get(p + 9) == 'E') {
+            return "image/webp";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * @return the pixel bytes the image holds in memory once decoded (32 bit per pixel)
+     */
+    public static long pixelBytes(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4L;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.nautilus.fxmap.tile;
+
+/**
+ * Packs an XYZ tile address into one long so tiles can be used as keys without allocating:
+ * the zoom level in the top 6 bits, then 29 bits of x and 29 bits of y.
+ */
+public final class TileKey {
+
+    public static final int MAX_ZOOM = 29;
+
+    private static final int COORD_BITS = 29;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+    private TileKey() { }
+
+    public static long pack(int zoom, int x, int y) {
+        if(zoom < 0 || zoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("Zoom level out of range: " + zoom);
+        }
+        return ((long) zoom << (2 * COORD_BITS)) | ((x & COORD_MASK) << COORD_BITS) | (y & COORD_MASK);
+    }
+
+    public static int zoom(long key) {
+        return (int) (key >>> (2 * COORD_BITS));
+    }
+
+    public static int x(long key) {
+        return (int) ((key >>> COORD_BITS) & COORD_MASK);
+    }
+
+    public static int y(long key) {
+        return (int) (key & COORD_MASK);
+    }
+
+    /**
+     * @return the key of the tile one zoom level up that covers this tile
+     */
+    public static long parent(long key) {
+        return pack(zoom(key) - 1, x(key) >> 1, y(key) >> 1);
+    }
+
+    /**
+     * @param quadrant 0 to 3: north west, north east, south west, south east
+     * @return the key of one of the four tiles one zoom level down that this tile covers
+     */
+    public static long child(long key, int quadrant) {
+        return pack(zoom(key) + 1, (x(key) << 1) | (quadrant & 1), (y(key) << 1) | ((quadrant >> 1) & 1));
+    }
+
+    public static String toString(long key) {
+        return zoom(key) + "/" + x(key) + "/" + y(key);
+    }
+}
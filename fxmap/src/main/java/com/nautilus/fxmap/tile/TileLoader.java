@@ -0,0 +1,398 @@
+package com.nautilus.fxmap.tile;
+
+import com.nautilus.fxmap.geo.GeoBoundary;
+import com.nautilus.fxmap.tile.cache.TileCache;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads tiles into a {@link TileCache} on a bounded pool of workers, nearest to the viewport center first.
+ *
+ * Requests for a tile that is already queued are merged (keeping the better priority), and queued tiles that left
+ * the viewport are dropped by {@link #updateViewport(TileRange, double, double)}, so a fling doesn't leave the
+ * workers busy with tiles that scrolled off screen. Reading and decoding happen on the workers; listeners are
+ * notified on the callback executor (the FX thread by default) with all tiles that finished since the last call.
+ */
+public class TileLoader {
+
+    /** Priorities below this are tiles on screen, the rest are prefetches. */
+    public static final double PREFETCH_PRIORITY = 1000.0;
+
+    public interface TileLoadListener {
+        /**
+         * @param keys tiles that are now on the heap tier of the cache
+         */
+        void onTilesLoaded(long[] keys);
+    }
+
+    private final TileCache cache;
+    private final ThreadPoolExecutor workers;
+    private final Executor callbackExecutor;
+    private final ConcurrentHashMap<Long, LoadTask> pending = new ConcurrentHashMap<>();
+    private final List<TileLoadListener> listeners = new ArrayList<>();
+    private final ConcurrentHashMap<Object, ViewportEntry> viewports = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<Long> loaded = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean deliveryScheduled = new AtomicBoolean();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder requested = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public TileLoader(TileCache cache, int workerCount) {
+        this(cache, workerCount, daemonThreadFactory("tile-loader"), Platform::runLater);
+    }
+
+    /**
+     * @param threadFactory e.g. {@link #virtualThreadFactory(String)} to load on virtual threads
+     * @param callbackExecutor where {@link TileLoadListener}s are called
+     */
+    public TileLoader(TileCache cache, int workerCount, ThreadFactory threadFactory, Executor callbackExecutor) {
+        this.cache = cache;
+        this.callbackExecutor = callbackExecutor;
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), threadFactory);
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    public void addListener(TileLoadListener listener) {
+        if(listener != null) {
+            synchronized (listeners) {
+                listeners.add(listener);
+            }
+        }
+    }
+
+    public void removeListener(TileLoadListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Queues the tile unless it is already on the heap tier or queued.
+     * @param priority lower loads sooner, e.g. the distance in tiles from the viewport center
+     * @return false if nothing had to be queued
+     */
+    public boolean request(long key, double priority) {
+        if(cache.getHeap().contains(key)) {
+            return false;
+        }
+        requested.increment();
+        LoadTask task = new LoadTask(key, priority, sequence.incrementAndGet());
+        LoadTask existing = pending.putIfAbsent(key, task);
+        if(existing == null) {
+            workers.execute(task);
+            return true;
+        }
+        merged.increment();
+        if(priority < existing.priority && workers.getQueue().remove(existing)) {
+            // re-queue with the better priority
+            LoadTask promoted = new LoadTask(key, priority, existing.sequence);
+            if(pending.replace(key, existing, promoted)) {
+                workers.execute(promoted);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops queued tiles outside {@code visible} and re-prioritizes the rest by their distance from the center.
+     * Tiles that are already being loaded still finish and go into the cache.
+     * @param keepPrefetchWithin prefetched tiles (priority >= {@link #PREFETCH_PRIORITY}) at most this many tiles
+     *                           outside the visible range are kept
+     */
+    public void updateViewport(TileRange visible, double centerTileX, double centerTileY, int keepPrefetchWithin) {
+        updateViewport(this, visible, centerTileX, centerTileY, keepPrefetchWithin);
+    }
+
+    /**
+     * Viewport of one of several views sharing the loader, e.g. through a
+     * {@link com.nautilus.fxmap.view.SharedMapContext}: a queued tile is only dropped when it is outside the
+     * viewports of all owners, and tiles on screen are prioritized by their distance from the nearest view center.
+     * @param owner identifies the view, see {@link #removeViewport(Object)}
+     */
+    public void updateViewport(Object owner, TileRange visible, double centerTileX, double centerTileY,
+                               int keepPrefetchWithin) {
+        viewports.put(owner, new ViewportEntry(visible, centerTileX, centerTileY, keepPrefetchWithin));
+        List<ViewportEntry> all = new ArrayList<>(viewports.values());
+        List<LoadTask> reprioritized = new ArrayList<>();
+        for(LoadTask task: pending.values()) {
+            boolean prefetch = task.priority >= PREFETCH_PRIORITY;
+            boolean keep = false;
+            double priority = Double.MAX_VALUE;
+            for(ViewportEntry v: all) {
+                if(v.range.contains(task.key)) {
+                    keep = true;
+                    if(!prefetch && TileKey.zoom(task.key) == v.range.getZoom()) {
+                        priority = Math.min(priority, distance(task.key, v.range, v.centerX, v.centerY));
+                    }
+                } else if(prefetch && distanceOutside(v.range, task.key) <= v.keepPrefetchWithin) {
+                    keep = true;
+                }
+            }
+            if(!keep) {
+                if(workers.getQueue().remove(task) && pending.remove(task.key, task)) {
+                    cancelled.increment();
+                }
+            } else if(priority != Double.MAX_VALUE && priority != task.priority && workers.getQueue().remove(task)) {
+                LoadTask updated = new LoadTask(task.key, priority, task.sequence);
+                if(pending.replace(task.key, task, updated)) {
+                    reprioritized.add(updated);
+                }
+            }
+        }
+        for(LoadTask task: reprioritized) {
+            workers.execute(task);
+        }
+    }
+
+    /**
+     * Forgets the viewport of a view that no longer shares the loader; its queued tiles go with the next update of
+     * the other views.
+     */
+    public void removeViewport(Object owner) {
+        viewports.remove(owner);
+    }
+
+    public int getViewportCount() {
+        return viewports.size();
+    }
+
+    public void updateViewport(TileRange visible, double centerTileX, double centerTileY) {
+        updateViewport(visible, centerTileX, centerTileY, 0);
+    }
+
+    /**
+     * Same as {@link #updateViewport(TileRange, double, double)} for the bounds reported by
+     * {@link com.nautilus.fxmap.geo.MapProjection#getBounds()}.
+     */
+    public void updateViewport(GeoBoundary bounds, int zoom) {
+        TileRange range = TileRange.of(bounds, zoom);
+        updateViewport(range, TileRange.lonToTileX(bounds.getMedian(0), zoom),
+                TileRange.latToTileY(bounds.getMedian(1), zoom));
+    }
+
+    /**
+     * @return the distance of the tile center from the given point, in tiles, taking an unwrapped range into account
+     */
+    public static double distance(long key, TileRange range, double centerTileX, double centerTileY) {
+        double x = TileKey.x(key) + 0.5;
+        if(x < range.getMinX()) {
+            x += 1 << range.getZoom();
+        }
+        double dx = x - centerTileX;
+        double dy = TileKey.y(key) + 0.5 - centerTileY;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static int distanceOutside(TileRange range, long key) {
+        if(TileKey.zoom(key) != range.getZoom()) {
+            // other zoom levels are compared through their tile at the range's zoom
+            int shift = TileKey.zoom(key) - range.getZoom();
+            int x = shift > 0 ? TileKey.x(key) >> shift : TileKey.x(key) << -shift;
+            int y = shift > 0 ? TileKey.y(key) >> shift : TileKey.y(key) << -shift;
+            return distanceOutside(range, x, y);
+        }
+        return distanceOutside(range, TileKey.x(key), TileKey.y(key));
+    }
+
+    private static int distanceOutside(TileRange range, int x, int y) {
+        // the range may be unwrapped, so also try the copy of x one world to the right
+        int dx = Math.min(axisDistance(x, range.getMinX(), range.getMaxX()),
+                axisDistance(x + (1 << range.getZoom()), range.getMinX(), range.getMaxX()));
+        return Math.max(dx, axisDistance(y, range.getMinY(), range.getMaxY()));
+    }
+
+    private static int axisDistance(int value, int min, int max) {
+        return value < min ? min - value : Math.max(0, value - max);
+    }
+
+    private void load(LoadTask task) {
+        try {
+            if(task.cancelled.get()) {
+                return;
+            }
+            Image image = cache.getImage(task.key);
+            if(image != null) {
+                completed.increment();
+                loaded.add(task.key);
+                scheduleDelivery();
+            } else {
+                failed.increment();
+            }
+        } catch (Exception e) {
+            failed.increment();
+            e.printStackTrace();
+        } finally {
+            pending.remove(task.key, task);
+        }
+    }
+
+    private void scheduleDelivery() {
+        if(deliveryScheduled.compareAndSet(false, true)) {
+            callbackExecutor.execute(this::deliver);
+        }
+    }
+
+    private void deliver() {
+        deliveryScheduled.set(false);
+        List<Long> keys = new ArrayList<>();
+        Long key;
+        while((key = loaded.poll()) != null) {
+            keys.add(key);
+        }
+        if(keys.isEmpty()) {
+            return;
+        }
+        long[] array = new long[keys.size()];
+        for(int i = 0; i < array.length; i++) {
+            array[i] = keys.get(i);
+        }
+        List<TileLoadListener> copy;
+        synchronized (listeners) {
+            copy = new ArrayList<>(listeners);
+        }
+        for(TileLoadListener l: copy) {
+            l.onTilesLoaded(array);
+        }
+    }
+
+    /**
+     * Drops everything that is queued.
+     */
+    public void cancelAll() {
+        for(LoadTask task: pending.values()) {
+            task.cancelled.set(true);
+            if(workers.getQueue().remove(task) && pending.remove(task.key, task)) {
+                cancelled.increment();
+            }
+        }
+    }
+
+    public void shutdown() {
+        cancelAll();
+        workers.shutdownNow();
+    }
+
+    public TileCache getCache() {
+        return cache;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public boolean isPending(long key) {
+        return pending.containsKey(key);
+    }
+
+    public long getRequestedCount() {
+        return requested.sum();
+    }
+
+    /**
+     * @return requests merged into one that was already queued
+     */
+    public long getMergedCount() {
+        return merged.sum();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.sum();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "TileLoader: pending = " + getPendingCount() + ", requested = " + getRequestedCount()
+                + ", merged = " + getMergedCount() + ", cancelled = " + getCancelledCount()
+                + ", completed = " + getCompletedCount() + ", failed = " + getFailedCount();
+    }
+
+    public static ThreadFactory daemonThreadFactory(String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * @return a factory for virtual threads when the JVM has them (Java 21+), otherwise
+     *         {@link #daemonThreadFactory(String)}. Looked up by reflection since the library targets Java 11.
+     */
+    public static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return daemonThreadFactory(prefix);
+        }
+    }
+
+    private final class LoadTask implements Runnable, Comparable<LoadTask> {
+        final long key;
+        final double priority;
+        final long sequence;
+        final AtomicBoolean cancelled = new AtomicBoolean();
+
+        LoadTask(long key, double priority, long sequence) {
+            this.key = key;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            load(this);
+        }
+
+        @Override
+        public int compareTo(LoadTask other) {
+            int c = Double.compare(priority, other.priority);
+            return c != 0 ? c : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static final class ViewportEntry {
+        final TileRange range;
+        final double centerX;
+        final double centerY;
+        final int keepPrefetchWithin;
+
+        ViewportEntry(TileRange range, double centerX, double centerY, int keepPrefetchWithin) {
+            this.range = range;
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.keepPrefetchWithin = keepPrefetchWithin;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.nautilus.fxmap.tile;
+
+import com.nautilus.fxmap.geo.GeoBoundary;
+import com.nautilus.fxmap.geo.Viewport;
+import javafx.geometry.Point2D;
+
+/**
+ * Warms the tiles the viewport is about to expose. The pan velocity is estimated from the drag deltas and the
+ * viewport is extrapolated {@link #getLookAheadMillis() a short time} ahead; tiles of that predicted viewport, and
+ * the tiles of the current viewport one zoom level up and down, are queued on the {@link TileLoader} at prefetch
+ * priority so they never delay a visible tile.
+ */
+public class TilePrefetcher {
+
+    // Drag events further apart than this start a new gesture
+    private static final long GESTURE_GAP_NANOS = 200_000_000L;
+    private static final double SMOOTHING = 0.3;
+
+    private final TileLoader loader;
+    private final int minZoom;
+    private final int maxZoom;
+    private long lookAheadMillis = 400;
+
+    private double velocityX;
+    private double velocityY;
+    private long lastPanNanos;
+    private int zoomDirection;
+
+    private TileRange lastPanRange;
+    private TileRange lastZoomRange;
+    private long prefetchRequests;
+
+    public TilePrefetcher(TileLoader loader, int minZoom, int maxZoom) {
+        this.loader = loader;
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+    }
+
+    /**
+     * Records that the viewport moved by (dx, dy) screen pixels, e.g. the content was dragged by (-dx, -dy).
+     */
+    public void onPan(double dx, double dy, long nanoTime) {
+        long dt = nanoTime - lastPanNanos;
+        lastPanNanos = nanoTime;
+        if(dt <= 0 || dt > GESTURE_GAP_NANOS) {
+            velocityX = 0.0;
+            velocityY = 0.0;
+            return;
+        }
+        double seconds = dt / 1e9;
+        velocityX = SMOOTHING * (dx / seconds) + (1.0 - SMOOTHING) * velocityX;
+        velocityY = SMOOTHING * (dy / seconds) + (1.0 - SMOOTHING) * velocityY;
+    }
+
+    public void onPanEnd() {
+        velocityX = 0.0;
+        velocityY = 0.0;
+    }
+
+    /**
+     * @param direction +1 after zooming in, -1 after zooming out
+     */
+    public void onZoom(int direction) {
+        zoomDirection = Integer.signum(direction);
+        lastZoomRange = null;
+    }
+
+    /**
+     * Queues prefetches for the given viewport.
+     * @param offsetX how far the viewport already moved in pixels but is not reflected in {@code viewport} yet,
+     *                e.g. the negated canvas translation while dragging
+     */
+    public void prefetch(Viewport viewport, double offsetX, double offsetY) {
+        if(viewport.getWidth() <= 0 || viewport.getHeight() <= 0) {
+            return;
+        }
+        TileRange visible = TileRange.of(viewport, minZoom, maxZoom);
+        final int zoom = visible.getZoom();
+
+        // where the viewport will be after the look ahead time at the current velocity
+        double aheadX = offsetX + velocityX * lookAheadMillis / 1000.0;
+        double aheadY = offsetY + velocityY * lookAheadMillis / 1000.0;
+        if(aheadX != 0.0 || aheadY != 0.0) {
+            Point2D nw = viewport.xyToLocation(aheadX, aheadY);
+            Point2D se = viewport.xyToLocation(viewport.getWidth() + aheadX, viewport.getHeight() + aheadY);
+            TileRange predicted = TileRange.of(new GeoBoundary(nw.getX(), se.getX(), se.getY(), nw.getY()), zoom);
+            if(!predicted.equals(lastPanRange)) {
+                lastPanRange = predicted;
+                double centerX = (predicted.getMinX() + predicted.getMaxX() + 1) / 2.0;
+                double centerY = (predicted.getMinY() + predicted.getMaxY() + 1) / 2.0;
+                requestRange(predicted, visible, TileLoader.PREFETCH_PRIORITY, centerX, centerY);
+            }
+        }
+
+        if(!visible.equals(lastZoomRange)) {
+            lastZoomRange = visible;
+            GeoBoundary bounds = viewport.getBounds();
+            // the zoom level the user is heading to comes first
+            double inPriority = TileLoader.PREFETCH_PRIORITY + (zoomDirection >= 0 ? 100.0 : 200.0);
+            double outPriority = TileLoader.PREFETCH_PRIORITY + (zoomDirection < 0 ? 100.0 : 200.0);
+            if(zoom + 1 <= maxZoom) {
+                TileRange range = TileRange.of(bounds, zoom + 1);
+                requestRange(range, null, inPriority, TileRange.lonToTileX(bounds.getMedian(0), zoom + 1),
+                        TileRange.latToTileY(bounds.getMedian(1), zoom + 1));
+            }
+            if(zoom - 1 >= minZoom) {
+                TileRange range = TileRange.of(bounds, zoom - 1);
+                requestRange(range, null, outPriority, TileRange.lonToTileX(bounds.getMedian(0), zoom - 1),
+                        TileRange.latToTileY(bounds.getMedian(1), zoom - 1));
+            }
+        }
+    }
+
+    private void requestRange(TileRange range, TileRange skip, double basePriority, double centerX, double centerY) {
+        for(int y = range.getMinY(); y <= range.getMaxY(); y++) {
+            for(int x = range.getMinX(); x <= range.getMaxX(); x++) {
+                long key = TileKey.pack(range.getZoom(), range.wrapX(x), y);
+                if(skip != null && skip.contains(key)) {
+                    // visible tiles are requested by the renderer at visible priority
+                    continue;
+                }
+                if(loader.request(key, basePriority + TileLoader.distance(key, range, centerX, centerY))) {
+                    prefetchRequests++;
+                }
+            }
+        }
+    }
+
+    public double getVelocityX() {
+        return velocityX;
+    }
+
+    public double getVelocityY() {
+        return velocityY;
+    }
+
+    public long getLookAheadMillis() {
+        return lookAheadMillis;
+    }
+
+    public void setLookAheadMillis(long lookAheadMillis) {
+        this.lookAheadMillis = lookAheadMillis;
+    }
+
+    /**
+     * @return how many tiles were queued by the prefetcher
+     */
+    public long getPrefetchRequestCount() {
+        return prefetchRequests;
+    }
+}
@@ -0,0 +1,28 @@
+package com.nautilus.fxmap.tile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Source of encoded (PNG/JPEG) XYZ raster tiles for the native map mode.
+ * Implementations must be safe to call from several threads.
+ */
+public interface TileProvider extends Closeable {
+
+    /**
+     * @return the encoded tile, positioned at its first byte, or null if the provider has no such tile
+     */
+    ByteBuffer getTile(int zoom, int x, int y) throws IOException;
+
+    default int getMinZoom() {
+        return 0;
+    }
+
+    default int getMaxZoom() {
+        return 19;
+    }
+
+    @Override
+    default void close() throws IOException { }
+}
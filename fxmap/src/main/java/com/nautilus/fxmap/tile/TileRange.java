@@ -0,0 +1,130 @@
+package com.nautilus.fxmap.tile;
+
+import com.nautilus.fxmap.geo.GeoBoundary;
+import com.nautilus.fxmap.geo.Viewport;
+
+/**
+ * The block of tiles at one zoom level that covers a viewport. The x range is not wrapped, so a viewport that
+ * crosses the antimeridian gives x values outside [0, 2^zoom); use {@link #wrapX(int)} before fetching.
+ */
+public final class TileRange {
+
+    private static final double MAX_LATITUDE = 85.051129;
+
+    private final int zoom;
+    private final int minX;
+    private final int maxX;
+    private final int minY;
+    private final int maxY;
+
+    public TileRange(int zoom, int minX, int maxX, int minY, int maxY) {
+        this.zoom = zoom;
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+    }
+
+    public static TileRange of(Viewport viewport, int minZoom, int maxZoom) {
+        int zoom = (int) Math.round(viewport.getZoomLevel());
+        zoom = Math.max(minZoom, Math.min(maxZoom, zoom));
+        return of(viewport.getBounds(), zoom);
+    }
+
+    public static TileRange of(GeoBoundary bounds, int zoom) {
+        int last = (1 << zoom) - 1;
+        int minX = (int) Math.floor(lonToTileX(bounds.getMinX(), zoom));
+        int maxX = (int) Math.floor(lonToTileX(bounds.getMaxX(), zoom));
+        if(maxX < minX) {
+            maxX += last + 1;
+        }
+        int minY = Math.max(0, (int) Math.floor(latToTileY(bounds.getMaxY(), zoom)));
+        int maxY = Math.min(last, (int) Math.floor(latToTileY(bounds.getMinY(), zoom)));
+        return new TileRange(zoom, minX, maxX, minY, maxY);
+    }
+
+    public static double lonToTileX(double lon, int zoom) {
+        return (lon + 180.0) / 360.0 * (1 << zoom);
+    }
+
+    public static double latToTileY(double lat, int zoom) {
+        double rad = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat)));
+        return (1.0 - Math.log(Math.tan(rad) + 1.0 / Math.cos(rad)) / Math.PI) / 2.0 * (1 << zoom);
+    }
+
+    public static double tileXToLon(double x, int zoom) {
+        return x / (1 << zoom) * 360.0 - 180.0;
+    }
+
+    public static double tileYToLat(double y, int zoom) {
+        double n = Math.PI * (1.0 - 2.0 * y / (1 << zoom));
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+
+    public int wrapX(int x) {
+        int size = 1 << zoom;
+        return ((x % size) + size) % size;
+    }
+
+    public boolean contains(int x, int y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    public boolean contains(long key) {
+        if(TileKey.zoom(key) != zoom) {
+            return false;
+        }
+        int x = TileKey.x(key);
+        int y = TileKey.y(key);
+        int size = 1 << zoom;
+        // the range may be unwrapped, so also try the copy of x one world to the right
+        return contains(x, y) || contains(x + size, y);
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    public int getTileCount() {
+        return Math.max(0, maxX - minX + 1) * Math.max(0, maxY - minY + 1);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof TileRange))
+            return false;
+        TileRange other = (TileRange) obj;
+        return zoom == other.zoom && minX == other.minX && maxX == other.maxX
+                && minY == other.minY && maxY == other.maxY;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = zoom;
+        result = 31 * result + minX;
+        result = 31 * result + maxX;
+        result = 31 * result + minY;
+        return 31 * result + maxY;
+    }
+
+    @Override
+    public String toString() {
+        return "TileRange z" + zoom + " x[" + minX + ", " + maxX + "] y[" + minY + ", " + maxY + "]";
+    }
+}
@@ -0,0 +1,248 @@
+package com.nautilus.fxmap.tile;
+
+import com.nautilus.fxmap.geo.GeoBoundary;
+import com.nautilus.fxmap.geo.Viewport;
+import com.nautilus.fxmap.layer.LongIntMap;
+import com.nautilus.fxmap.tile.cache.TileCache;
+import javafx.geometry.Point2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Draws XYZ raster tiles from a {@link TileProvider} for the current {@link Viewport}. This is the base map of the
+ * native map mode, it replaces the WebView and OpenLayers. Must be used on the FX thread.
+ *
+ * Tiles are placed by projecting their corners, so the renderer follows whatever projection the view uses; with
+ * {@link com.nautilus.fxmap.geo.impl.WebMercatorProjection} they line up pixel exact.
+ *
+ * With a {@link TileLoader} set, the renderer only draws what is already decoded on the heap and queues the missing
+ * tiles, nearest to the center first; the caller renders again when the loader reports them. Without one, missing
+ * tiles are loaded synchronously.
+ *
+ * While a tile is loading, e.g. right after a zoom, its place is filled from what is already decoded: a scaled up
+ * crop of the nearest cached ancestor, otherwise the cached tiles of the four children. The exact tile replaces it
+ * in the first render after it arrives.
+ *
+ * The renderer also measures the blank tile time: how long each tile was on screen without its image, summed over
+ * all tiles. It is sampled at render time, so it is as precise as the frame rate.
+ */
+public class TileRenderer {
+
+    private final TileCache cache;
+    private TileLoader loader;
+    private Color background = Color.rgb(0xE8, 0xE4, 0xDC);
+    private int keepPrefetchWithin = 2;
+    // an ancestor more levels up than this is too blurry to be worth drawing
+    private int maxFallbackLevels = 5;
+
+    // visible tiles without an image and the time they were first drawn blank, unordered; the map finds the index of
+    // a key without boxing, so a frame doesn't allocate
+    private final LongIntMap blankIndex = new LongIntMap(64);
+    private long[] blankKeys = new long[64];
+    private long[] blankSince = new long[64];
+    private int blankCount;
+    private long blankTileNanos;
+    private long blankTileCount;
+
+    public TileRenderer(TileProvider provider) {
+        this(provider instanceof TileCache ? (TileCache) provider : new TileCache(provider));
+    }
+
+    public TileRenderer(TileCache cache) {
+        this.cache = cache;
+    }
+
+    public void render(GraphicsContext g, Viewport viewport) {
+        final double canvasWidth = g.getCanvas().getWidth();
+        final double canvasHeight = g.getCanvas().getHeight();
+        g.setFill(background);
+        g.fillRect(0, 0, canvasWidth, canvasHeight);
+        if(viewport.getWidth() <= 0 || viewport.getHeight() <= 0) {
+            return;
+        }
+
+        TileRange range = TileRange.of(viewport, cache.getMinZoom(), cache.getMaxZoom());
+        final int zoom = range.getZoom();
+        GeoBoundary bounds = viewport.getBounds();
+        final double centerX = TileRange.lonToTileX(bounds.getMedian(0), zoom);
+        final double centerY = TileRange.latToTileY(bounds.getMedian(1), zoom);
+        if(loader != null) {
+            loader.updateViewport(this, range, centerX, centerY, keepPrefetchWithin);
+        }
+        final long now = System.nanoTime();
+        for(int y = range.getMinY(); y <= range.getMaxY(); y++) {
+            for(int x = range.getMinX(); x <= range.getMaxX(); x++) {
+                long key = TileKey.pack(zoom, range.wrapX(x), y);
+                Image image;
+                if(loader != null) {
+                    image = cache.peekImage(key);
+                    if(image == null) {
+                        loader.request(key, TileLoader.distance(key, range, centerX, centerY));
+                    }
+                } else {
+                    image = loadTile(key);
+                }
+                Point2D nw = viewport.locationToXY(TileRange.tileYToLat(y, zoom), TileRange.tileXToLon(x, zoom));
+                Point2D se = viewport.locationToXY(TileRange.tileYToLat(y + 1, zoom), TileRange.tileXToLon(x + 1, zoom));
+                final double w = se.getX() - nw.getX();
+                final double h = se.getY() - nw.getY();
+                if(image == null) {
+                    if(loader == null || !drawFallback(g, key, nw.getX(), nw.getY(), w, h)) {
+                        markBlank(key, now);
+                    }
+                    continue;
+                }
+                int blank = blankIndex.remove(key);
+                if(blank >= 0) {
+                    endBlank(blank, now);
+                }
+                g.drawImage(image, nw.getX(), nw.getY(), w, h);
+            }
+        }
+        // tiles that left the screen before they arrived were blank until now
+        for(int i = blankCount - 1; i >= 0; i--) {
+            if(!range.contains(blankKeys[i])) {
+                blankIndex.remove(blankKeys[i]);
+                endBlank(i, now);
+            }
+        }
+    }
+
+    private void markBlank(long key, long now) {
+        if(blankIndex.get(key) >= 0) {
+            return;
+        }
+        if(blankCount == blankKeys.length) {
+            blankKeys = Arrays.copyOf(blankKeys, blankCount * 2);
+            blankSince = Arrays.copyOf(blankSince, blankCount * 2);
+        }
+        blankKeys[blankCount] = key;
+        blankSince[blankCount] = now;
+        blankIndex.put(key, blankCount++);
+    }
+
+    /**
+     * Counts the blank time of the entry at the index, already removed from the map, and fills its place with the
+     * last entry.
+     */
+    private void endBlank(int index, long now) {
+        blankTileNanos += now - blankSince[index];
+        blankTileCount++;
+        final int last = --blankCount;
+        if(index != last) {
+            blankKeys[index] = blankKeys[last];
+            blankSince[index] = blankSince[last];
+            blankIndex.put(blankKeys[index], index);
+        }
+    }
+
+    /**
+     * Fills the place of a tile that is not decoded yet from its cached ancestor or children.
+     * @return true if the whole tile area was covered
+     */
+    protected boolean drawFallback(GraphicsContext g, long key, double x, double y, double w, double h) {
+        long ancestor = cache.findCachedAncestor(key, maxFallbackLevels);
+        if(ancestor >= 0) {
+            Image image = cache.peekFallbackImage(ancestor);
+            if(image != null) {
+                int levels = TileKey.zoom(key) - TileKey.zoom(ancestor);
+                double cropWidth = image.getWidth() / (1 << levels);
+                double cropHeight = image.getHeight() / (1 << levels);
+                int column = TileKey.x(key) - (TileKey.x(ancestor) << levels);
+                int row = TileKey.y(key) - (TileKey.y(ancestor) << levels);
+                g.drawImage(image, column * cropWidth, row * cropHeight, cropWidth, cropHeight, x, y, w, h);
+                return true;
+            }
+        }
+        if(TileKey.zoom(key) >= cache.getMaxZoom()) {
+            return false;
+        }
+        int drawn = 0;
+        for(int quadrant = 0; quadrant < 4; quadrant++) {
+            Image child = cache.peekFallbackImage(TileKey.child(key, quadrant));
+            if(child != null) {
+                g.drawImage(child, x + (quadrant & 1) * w / 2, y + (quadrant >> 1) * h / 2, w / 2, h / 2);
+                drawn++;
+            }
+        }
+        return drawn == 4;
+    }
+
+    protected Image loadTile(long key) {
+        try {
+            return cache.getImage(key);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public TileCache getCache() {
+        return cache;
+    }
+
+    public TileLoader getLoader() {
+        return loader;
+    }
+
+    public void setLoader(TileLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * @return prefetched tiles at most this many tiles off screen are not cancelled when the viewport moves
+     */
+    public int getKeepPrefetchWithin() {
+        return keepPrefetchWithin;
+    }
+
+    public void setKeepPrefetchWithin(int keepPrefetchWithin) {
+        this.keepPrefetchWithin = keepPrefetchWithin;
+    }
+
+    public int getMaxFallbackLevels() {
+        return maxFallbackLevels;
+    }
+
+    public void setMaxFallbackLevels(int maxFallbackLevels) {
+        this.maxFallbackLevels = maxFallbackLevels;
+    }
+
+    /**
+     * @return total time tiles were on screen without their image or a complete fallback, tiles still blank are
+     *         not included
+     */
+    public long getBlankTileNanos() {
+        return blankTileNanos;
+    }
+
+    /**
+     * @return how many tiles were drawn blank at least once
+     */
+    public long getBlankTileCount() {
+        return blankTileCount;
+    }
+
+    public double getMeanBlankTileMillis() {
+        return blankTileCount == 0 ? 0.0 : blankTileNanos / 1e6 / blankTileCount;
+    }
+
+    public void resetBlankTileTime() {
+        blankIndex.clear();
+        blankCount = 0;
+        blankTileNanos = 0;
+        blankTileCount = 0;
+    }
+
+    public Color getBackground() {
+        return background;
+    }
+
+    public void setBackground(Color background) {
+        this.background = background;
+    }
+}
@@ -0,0 +1,240 @@
+package com.nautilus.fxmap.tile.cache;
+
+import com.nautilus.fxmap.tile.TileKey;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Persistent tier: encoded tiles stored as {@code directory/zoom/x/y.tile}, capped in total bytes.
+ * The LRU index is kept in memory and rebuilt from the file modification times when the cache is opened, so a hit
+ * touches the modification time of its file to keep the order across restarts.
+ */
+public class DiskTileCache implements Closeable {
+
+    private static final String SUFFIX = ".tile";
+    private static final String TEMP_PREFIX = "tile";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    private long bytes;
+    private final LinkedHashMap<Long, Long> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private final CacheStats stats = new CacheStats("disk");
+    private volatile boolean closed;
+
+    public DiskTileCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        loadIndex();
+    }
+
+    private void loadIndex() throws IOException {
+        List<StoredTile> found = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory, 3)) {
+            Iterator<Path> it = files.iterator();
+            while(it.hasNext()) {
+                Path file = it.next();
+                String name = file.getFileName().toString();
+                if(name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX)) {
+                    // left over by a put that didn't finish, e.g. the process was killed
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                long key = name.endsWith(SUFFIX) ? keyOf(file) : -1;
+                if(key >= 0) {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    found.add(new StoredTile(key, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        }
+        found.sort(Comparator.comparingLong(t -> t.lastModified));
+        List<Long> evicted;
+        synchronized (this) {
+            for(StoredTile tile: found) {
+                index.put(tile.key, tile.size);
+                bytes += tile.size;
+            }
+            // the cap may have been lowered since the tiles were written
+            evicted = evict();
+        }
+        for(long k: evicted) {
+            Files.deleteIfExists(pathOf(k));
+        }
+    }
+
+    private long keyOf(Path file) {
+        try {
+            Path relative = directory.relativize(file);
+            if(relative.getNameCount() != 3) {
+                return -1;
+            }
+            String name = relative.getName(2).toString();
+            int zoom = Integer.parseInt(relative.getName(0).toString());
+            int x = Integer.parseInt(relative.getName(1).toString());
+            int y = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+            return TileKey.pack(zoom, x, y);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private Path pathOf(long key) {
+        return directory.resolve(Integer.toString(TileKey.zoom(key)))
+                .resolve(Integer.toString(TileKey.x(key)))
+                .resolve(TileKey.y(key) + SUFFIX);
+    }
+
+    public ByteBuffer get(long key) throws IOException {
+        if(closed) {
+            return null;
+        }
+        synchronized (this) {
+            if(index.get(key) == null) {
+                stats.miss();
+                return null;
+            }
+        }
+        try {
+            Path file = pathOf(key);
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+            stats.hit();
+            touch(file);
+            return data;
+        } catch (NoSuchFileException e) {
+            // deleted behind our back
+            synchronized (this) {
+                Long size = index.remove(key);
+                if(size != null) {
+                    bytes -= size;
+                }
+            }
+            stats.miss();
+            return null;
+        }
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // the tile was read, only its place in the LRU after a restart is off
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of {@code data}; the position of {@code data} is not changed.
+     * The file is written next to its final name and moved into place, so readers never see a partial tile.
+     */
+    public void put(long key, ByteBuffer data) throws IOException {
+        long size = data.remaining();
+        if(closed || size > maxBytes) {
+            return;
+        }
+        Path target = pathOf(key);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), TEMP_PREFIX, TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer source = data.duplicate();
+            while(source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        List<Long> evicted;
+        synchronized (this) {
+            if(closed) {
+                // the file stays for the next cache on the directory
+                return;
+            }
+            Long old = index.put(key, size);
+            if(old != null) {
+                bytes -= old;
+            }
+            bytes += size;
+            evicted = evict();
+        }
+        for(long k: evicted) {
+            Files.deleteIfExists(pathOf(k));
+        }
+    }
+
+    private List<Long> evict() {
+        List<Long> evicted = new ArrayList<>();
+        Iterator<Map.Entry<Long, Long>> it = index.entrySet().iterator();
+        while(bytes > maxBytes && it.hasNext()) {
+            Map.Entry<Long, Long> eldest = it.next();
+            it.remove();
+            bytes -= eldest.getValue();
+            evicted.add(eldest.getKey());
+            stats.evicted();
+        }
+        return evicted;
+    }
+
+    /**
+     * Stops reading and writing tiles. The files stay, the next cache opened on the directory finds them; a put that
+     * is writing already finishes.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            index.clear();
+            bytes = 0;
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    private static final class StoredTile {
+        final long key;
+        final long size;
+        final long lastModified;
+
+        StoredTile(long key, long size, long lastModified) {
+            this.key = key;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
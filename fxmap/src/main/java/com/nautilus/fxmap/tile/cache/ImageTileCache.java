@@ -0,0 +1,99 @@
+package com.nautilus.fxmap.tile.cache;
+
+import com.nautilus.fxmap.tile.TileImages;
+import javafx.scene.image.Image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Heap tier: LRU of decoded tiles, bounded by the bytes their pixels take rather than by entry count,
+ * so a budget holds the same amount of memory for 256 and 512 pixel tiles.
+ */
+public class ImageTileCache {
+
+    private final long maxBytes;
+    private long bytes;
+    private final LinkedHashMap<Long, Image> images = new LinkedHashMap<>(256, 0.75f, true);
+    private final CacheStats stats = new CacheStats("heap");
+
+    public ImageTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized Image get(long key) {
+        Image image = images.get(key);
+        if(image == null) {
+            stats.miss();
+        } else {
+            stats.hit();
+        }
+        return image;
+    }
+
+    /**
+     * Like {@link #get(long)} but doesn't count a hit or miss, for speculative lookups such as fallback tiles.
+     */
+    public synchronized Image peek(long key) {
+        return images.get(key);
+    }
+
+    /**
+     * Looks the tile up without counting a hit or miss and without touching the LRU order.
+     */
+    public synchronized boolean contains(long key) {
+        return images.containsKey(key);
+    }
+
+    public synchronized void put(long key, Image image) {
+        long size = TileImages.pixelBytes(image);
+        if(size > maxBytes) {
+            return;
+        }
+        Image old = images.put(key, image);
+        if(old != null) {
+            bytes -= TileImages.pixelBytes(old);
+        }
+        bytes += size;
+        evict();
+    }
+
+    public synchronized void remove(long key) {
+        Image old = images.remove(key);
+        if(old != null) {
+            bytes -= TileImages.pixelBytes(old);
+        }
+    }
+
+    public synchronized void clear() {
+        images.clear();
+        bytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Long, Image>> it = images.entrySet().iterator();
+        while(bytes > maxBytes && it.hasNext()) {
+            Image eldest = it.next().getValue();
+            it.remove();
+            bytes -= TileImages.pixelBytes(eldest);
+            stats.evicted();
+        }
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int size() {
+        return images.size();
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+}
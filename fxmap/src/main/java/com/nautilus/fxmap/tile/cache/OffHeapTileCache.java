@@ -0,0 +1,87 @@
+package com.nautilus.fxmap.tile.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Off-heap tier: LRU of the encoded tile bytes in direct buffers, so a large cache of compressed tiles costs no
+ * heap and no GC time. The JVM has to be started with a -XX:MaxDirectMemorySize above the budget.
+ */
+public class OffHeapTileCache {
+
+    private final long maxBytes;
+    private long bytes;
+    private final LinkedHashMap<Long, ByteBuffer> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private final CacheStats stats = new CacheStats("off-heap");
+
+    public OffHeapTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return a read-only view of the cached bytes, or null on a miss
+     */
+    public synchronized ByteBuffer get(long key) {
+        ByteBuffer data = tiles.get(key);
+        if(data == null) {
+            stats.miss();
+            return null;
+        }
+        stats.hit();
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the remaining bytes of {@code data} into a direct buffer; the position of {@code data} is not changed.
+     */
+    public void put(long key, ByteBuffer data) {
+        int size = data.remaining();
+        if(size > maxBytes) {
+            return;
+        }
+        ByteBuffer copy = ByteBuffer.allocateDirect(size);
+        copy.put(data.duplicate());
+        copy.flip();
+        synchronized (this) {
+            ByteBuffer old = tiles.put(key, copy);
+            if(old != null) {
+                bytes -= old.capacity();
+            }
+            bytes += size;
+            evict();
+        }
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Long, ByteBuffer>> it = tiles.entrySet().iterator();
+        while(bytes > maxBytes && it.hasNext()) {
+            ByteBuffer eldest = it.next().getValue();
+            it.remove();
+            bytes -= eldest.capacity();
+            stats.evicted();
+        }
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,192 @@
+package com.nautilus.fxmap.tile.cache;
+
+import com.nautilus.fxmap.tile.TileImages;
+import com.nautilus.fxmap.tile.TileKey;
+import com.nautilus.fxmap.tile.TileProvider;
+import javafx.scene.image.Image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tiered tile cache in front of a {@link TileProvider}, keyed by {@link TileKey packed tile keys}:
+ * <pre>
+ *   heap      decoded Images, LRU bounded by pixel bytes
+ *   off-heap  encoded bytes in direct buffers, LRU bounded by bytes
+ *   disk      encoded bytes in files, LRU bounded by bytes (optional)
+ *   provider  the source of the tiles
+ * </pre>
+ * A tile found in a lower tier is copied into the tiers above it, so a tile is decoded only when it is not on the
+ * heap anymore. The cache is itself a TileProvider, serving the encoded bytes from the off-heap and disk tiers.
+ */
+public class TileCache implements TileProvider {
+
+    public static final long DEFAULT_HEAP_BYTES = 128L * 1024 * 1024;
+    public static final long DEFAULT_OFF_HEAP_BYTES = 64L * 1024 * 1024;
+
+    private final TileProvider provider;
+    private final ImageTileCache heap;
+    private final OffHeapTileCache offHeap;
+    private final DiskTileCache disk;
+
+    private final LongAdder decodes = new LongAdder();
+    private final LongAdder providerLoads = new LongAdder();
+
+    public TileCache(TileProvider provider) {
+        this(provider, new ImageTileCache(DEFAULT_HEAP_BYTES), new OffHeapTileCache(DEFAULT_OFF_HEAP_BYTES), null);
+    }
+
+    /**
+     * @param disk may be null to run without the persistent tier
+     */
+    public TileCache(TileProvider provider, ImageTileCache heap, OffHeapTileCache offHeap, DiskTileCache disk) {
+        this.provider = provider;
+        this.heap = heap;
+        this.offHeap = offHeap;
+        this.disk = disk;
+    }
+
+    /**
+     * @return the decoded tile if it is on the heap; never does I/O or decoding, so it is cheap enough for the FX thread
+     */
+    public Image peekImage(long key) {
+        return heap.get(key);
+    }
+
+    /**
+     * Finds the nearest ancestor of the tile that is on the heap, probing one key per zoom level.
+     * @param maxLevels how many zoom levels to go up at most
+     * @return the key of the ancestor, or -1 if none of them is decoded
+     */
+    public long findCachedAncestor(long key, int maxLevels) {
+        int levels = Math.min(maxLevels, TileKey.zoom(key) - getMinZoom());
+        for(int i = 0; i < levels; i++) {
+            key = TileKey.parent(key);
+            if(heap.peek(key) != null) {
+                return key;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the decoded tile if it is on the heap, without counting a hit or a miss
+     */
+    public Image peekFallbackImage(long key) {
+        return heap.peek(key);
+    }
+
+    /**
+     * Returns the decoded tile, going through the tiers down to the provider. May block on I/O and decoding.
+     * @return the tile, or null if the provider does not have it
+     */
+    public Image getImage(long key) throws IOException {
+        Image image = heap.get(key);
+        if(image != null) {
+            return image;
+        }
+        ByteBuffer data = getTile(key);
+        if(data == null) {
+            return null;
+        }
+        image = TileImages.decode(data);
+        decodes.increment();
+        if(image != null) {
+            heap.put(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * Puts an image decoded elsewhere (e.g. by a loader thread) on the heap tier.
+     */
+    public void putImage(long key, Image image) {
+        heap.put(key, image);
+    }
+
+    public ByteBuffer getTile(long key) throws IOException {
+        ByteBuffer data = offHeap.get(key);
+        if(data != null) {
+            return data;
+        }
+        if(disk != null) {
+            data = disk.get(key);
+            if(data != null) {
+                offHeap.put(key, data);
+                return data;
+            }
+        }
+        data = provider.getTile(TileKey.zoom(key), TileKey.x(key), TileKey.y(key));
+        providerLoads.increment();
+        if(data != null) {
+            offHeap.put(key, data);
+            if(disk != null) {
+                disk.put(key, data);
+            }
+        }
+        return data;
+    }
+
+    @Override
+    public ByteBuffer getTile(int zoom, int x, int y) throws IOException {
+        return getTile(TileKey.pack(zoom, x, y));
+    }
+
+    @Override
+    public int getMinZoom() {
+        return provider.getMinZoom();
+    }
+
+    @Override
+    public int getMaxZoom() {
+        return provider.getMaxZoom();
+    }
+
+    @Override
+    public void close() throws IOException {
+        heap.clear();
+        offHeap.clear();
+        if(disk != null) {
+            disk.close();
+        }
+        provider.close();
+    }
+
+    public TileProvider getProvider() {
+        return provider;
+    }
+
+    public ImageTileCache getHeap() {
+        return heap;
+    }
+
+    public OffHeapTileCache getOffHeap() {
+        return offHeap;
+    }
+
+    public DiskTileCache getDisk() {
+        return disk;
+    }
+
+    /**
+     * @return how many tiles were decoded into Images
+     */
+    public long getDecodeCount() {
+        return decodes.sum();
+    }
+
+    /**
+     * @return how many tiles were requested from the provider, i.e. missed every tier
+     */
+    public long getProviderLoadCount() {
+        return providerLoads.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "TileCache [" + heap.getStats() + "; " + offHeap.getStats()
+                + (disk != null ? "; " + disk.getStats() : "")
+                + "; decodes = " + getDecodeCount() + ", provider loads = " + getProviderLoadCount() + "]";
+    }
+}
@@ -0,0 +1,66 @@
+package com.nautilus.fxmap.tile.impl;
+
+import com.nautilus.fxmap.tile.TileProvider;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Serves tiles from a local directory laid out as {@code root/zoom/x/y.extension},
+ * e.g. a tile dump of an OSM server. Useful to run the map offline.
+ */
+public class FileSystemTileProvider implements TileProvider {
+
+    private final Path root;
+    private final String extension;
+    private final int minZoom;
+    private final int maxZoom;
+
+    public FileSystemTileProvider(Path root) {
+        this(root, "png", 0, 19);
+    }
+
+    public FileSystemTileProvider(Path root, String extension, int minZoom, int maxZoom) {
+        this.root = root;
+        this.extension = extension;
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+    }
+
+    public Path tilePath(int zoom, int x, int y) {
+        return root.resolve(Integer.toString(zoom))
+                .resolve(Integer.toString(x))
+                .resolve(y + "." + extension);
+    }
+
+    @Override
+    public ByteBuffer getTile(int zoom, int x, int y) throws IOException {
+        try {
+            return ByteBuffer.wrap(Files.readAllBytes(tilePath(zoom, x, y)));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int getMinZoom() {
+        return minZoom;
+    }
+
+    @Override
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public String toString() {
+        return "FileSystemTileProvider: " + root + " (*." + extension + ", zoom " + minZoom + "-" + maxZoom + ")";
+    }
+}
@@ -0,0 +1,178 @@
+package com.nautilus.fxmap.tile.impl;
+
+import com.nautilus.fxmap.tile.TileKey;
+import com.nautilus.fxmap.tile.TileProvider;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only, memory mapped single file tile archive, e.g. an offline basemap. Written by {@link TileArchiveWriter}.
+ *
+ * Layout, all numbers big endian:
+ * <pre>
+ * header     magic "FXTA", version, tile count, min zoom, max zoom, largest tile length, directory offset,
+ *            data offset ({@link #HEADER_SIZE} bytes)
+ * directory  one entry per tile sorted by {@link TileKey packed key}: key (long), offset in the file (long),
+ *            length (int)
+ * data       the tile bytes
+ * </pre>
+ *
+ * The file is mapped once when it is opened and no file handle is kept per tile. A lookup is a binary search over
+ * the mapped directory and the tile comes back as a read only slice of the mapping, so nothing is copied before
+ * the decoder reads it. Thread safe.
+ */
+public class TileArchive implements TileProvider {
+
+    public static final int MAGIC = 0x46585441; // "FXTA"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 40;
+    public static final int ENTRY_SIZE = 20;
+
+    // A mapping can't be larger than 2GB, so bigger data sections are mapped as segments overlapping by the
+    // largest tile, that way every tile lies completely inside one segment
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final Path file;
+    private final int tileCount;
+    private final int minZoom;
+    private final int maxZoom;
+    private final long dataOffset;
+    private final ByteBuffer directory;
+    private final ByteBuffer[] segments;
+
+    public TileArchive(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if(size < HEADER_SIZE) {
+                throw new IOException("Not a tile archive: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.BIG_ENDIAN);
+            if(header.getInt(0) != MAGIC) {
+                throw new IOException("Not a tile archive: " + file);
+            }
+            if(header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported tile archive version " + header.getInt(4) + ": " + file);
+            }
+            tileCount = header.getInt(8);
+            minZoom = header.get(12);
+            maxZoom = header.get(13);
+            final int maxTileLength = header.getInt(16);
+            final long directoryOffset = header.getLong(20);
+            dataOffset = header.getLong(28);
+            final long directorySize = (long) tileCount * ENTRY_SIZE;
+            if(tileCount < 0 || maxTileLength < 0 || directoryOffset < HEADER_SIZE
+                    || directoryOffset + directorySize > dataOffset || dataOffset > size
+                    || directorySize > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt tile archive header: " + file);
+            }
+            directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize);
+
+            final long dataSize = size - dataOffset;
+            int count = (int) Math.max(1, (dataSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new ByteBuffer[count];
+            for(int i = 0; i < count; i++) {
+                long start = i * SEGMENT_SIZE;
+                long length = Math.min(dataSize - start, SEGMENT_SIZE + maxTileLength);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + start, length);
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer getTile(int zoom, int x, int y) throws IOException {
+        if(zoom < minZoom || zoom > maxZoom) {
+            return null;
+        }
+        return getTile(TileKey.pack(zoom, x, y));
+    }
+
+    /**
+     * @return a read only slice of the mapped file, or null if the archive doesn't have the tile
+     */
+    public ByteBuffer getTile(long key) throws IOException {
+        int index = indexOf(key);
+        if(index < 0) {
+            return null;
+        }
+        final int entry = index * ENTRY_SIZE;
+        long offset = directory.getLong(entry + 8) - dataOffset;
+        int length = directory.getInt(entry + 16);
+        int segment = (int) (offset / SEGMENT_SIZE);
+        if(offset < 0 || segment >= segments.length) {
+            throw new IOException("Corrupt tile archive entry for " + TileKey.toString(key) + ": " + file);
+        }
+        ByteBuffer slice = segments[segment].duplicate();
+        int position = (int) (offset - segment * SEGMENT_SIZE);
+        if(position + length > slice.capacity()) {
+            throw new IOException("Corrupt tile archive entry for " + TileKey.toString(key) + ": " + file);
+        }
+        slice.limit(position + length);
+        slice.position(position);
+        return slice.slice();
+    }
+
+    public boolean contains(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Binary search over the mapped directory.
+     * @return the index of the entry, or a negative value if there is none
+     */
+    public int indexOf(long key) {
+        int low = 0;
+        int high = tileCount - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = directory.getLong(mid * ENTRY_SIZE);
+            if(midKey < key) {
+                low = mid + 1;
+            } else if(midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the key of the entry at the given index, keys are in ascending order
+     */
+    public long keyAt(int index) {
+        if(index < 0 || index >= tileCount) {
+            throw new IndexOutOfBoundsException("Index " + index + ", tile count " + tileCount);
+        }
+        return directory.getLong(index * ENTRY_SIZE);
+    }
+
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    @Override
+    public int getMinZoom() {
+        return minZoom;
+    }
+
+    @Override
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "TileArchive: " + file + " (" + tileCount + " tiles, zoom " + minZoom + "-" + maxZoom + ")";
+    }
+}
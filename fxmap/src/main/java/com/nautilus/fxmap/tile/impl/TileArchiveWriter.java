@@ -0,0 +1,187 @@
+package com.nautilus.fxmap.tile.impl;
+
+import com.nautilus.fxmap.tile.TileKey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Packs tiles into a {@link TileArchive}. Tiles are added by key, from files or from memory, and written in one go
+ * by {@link #write(Path)}; tile files are only read while writing. The archive is written next to the target and
+ * moved in place when it is complete, so a reader never maps half an archive.
+ */
+public class TileArchiveWriter {
+
+    // packed key -> Path or byte[]
+    private final TreeMap<Long, Object> tiles = new TreeMap<>();
+
+    /**
+     * Packs a directory laid out as {@code root/zoom/x/y.extension}, see {@link FileSystemTileProvider}.
+     * @return the number of tiles in the archive
+     */
+    public static int pack(Path tileDirectory, String extension, Path archive) throws IOException {
+        TileArchiveWriter writer = new TileArchiveWriter();
+        writer.addDirectory(tileDirectory, extension);
+        writer.write(archive);
+        return writer.getTileCount();
+    }
+
+    public void addDirectory(Path root, String extension) throws IOException {
+        final String suffix = "." + extension;
+        try (DirectoryStream<Path> zooms = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for(Path zoomDir: zooms) {
+                int zoom = parse(zoomDir.getFileName().toString());
+                if(zoom < 0 || zoom > TileKey.MAX_ZOOM) {
+                    continue;
+                }
+                try (DirectoryStream<Path> columns = Files.newDirectoryStream(zoomDir, Files::isDirectory)) {
+                    for(Path column: columns) {
+                        int x = parse(column.getFileName().toString());
+                        if(x < 0) {
+                            continue;
+                        }
+                        try (DirectoryStream<Path> files = Files.newDirectoryStream(column, "*" + suffix)) {
+                            for(Path file: files) {
+                                String name = file.getFileName().toString();
+                                int y = parse(name.substring(0, name.length() - suffix.length()));
+                                if(y >= 0) {
+                                    add(zoom, x, y, file);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void add(int zoom, int x, int y, Path file) {
+        tiles.put(TileKey.pack(zoom, x, y), file);
+    }
+
+    public void add(int zoom, int x, int y, byte[] data) {
+        tiles.put(TileKey.pack(zoom, x, y), data);
+    }
+
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    public void write(Path archive) throws IOException {
+        final int count = tiles.size();
+        final long directoryOffset = TileArchive.HEADER_SIZE;
+        final long dataOffset = directoryOffset + (long) count * TileArchive.ENTRY_SIZE;
+
+        // lay out the data section first, the directory needs the offsets
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        int minZoom = TileKey.MAX_ZOOM;
+        int maxZoom = 0;
+        int maxTileLength = 0;
+        long offset = dataOffset;
+        int i = 0;
+        for(Map.Entry<Long, Object> e: tiles.entrySet()) {
+            long length = e.getValue() instanceof Path ? Files.size((Path) e.getValue()) : ((byte[]) e.getValue()).length;
+            if(length > Integer.MAX_VALUE) {
+                throw new IOException("Tile too large: " + e.getValue());
+            }
+            offsets[i] = offset;
+            lengths[i] = (int) length;
+            offset += length;
+            maxTileLength = Math.max(maxTileLength, lengths[i]);
+            minZoom = Math.min(minZoom, TileKey.zoom(e.getKey()));
+            maxZoom = Math.max(maxZoom, TileKey.zoom(e.getKey()));
+            i++;
+        }
+        if(count == 0) {
+            minZoom = 0;
+        }
+
+        Path parent = archive.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, archive.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(TileArchive.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+                header.putInt(TileArchive.MAGIC)
+                        .putInt(TileArchive.VERSION)
+                        .putInt(count)
+                        .put((byte) minZoom)
+                        .put((byte) maxZoom)
+                        .putShort((short) 0)
+                        .putInt(maxTileLength)
+                        .putLong(directoryOffset)
+                        .putLong(dataOffset)
+                        .putInt(0)
+                        .flip();
+                writeFully(out, header);
+
+                ByteBuffer directory = ByteBuffer.allocate(64 * 1024 / TileArchive.ENTRY_SIZE * TileArchive.ENTRY_SIZE)
+                        .order(ByteOrder.BIG_ENDIAN);
+                i = 0;
+                for(long key: tiles.keySet()) {
+                    if(directory.remaining() < TileArchive.ENTRY_SIZE) {
+                        directory.flip();
+                        writeFully(out, directory);
+                        directory.clear();
+                    }
+                    directory.putLong(key).putLong(offsets[i]).putInt(lengths[i]);
+                    i++;
+                }
+                directory.flip();
+                writeFully(out, directory);
+
+                i = 0;
+                for(Map.Entry<Long, Object> e: tiles.entrySet()) {
+                    long written;
+                    if(e.getValue() instanceof Path) {
+                        try (FileChannel in = FileChannel.open((Path) e.getValue(), StandardOpenOption.READ)) {
+                            written = 0;
+                            while(written < lengths[i]) {
+                                long n = in.transferTo(written, lengths[i] - written, out);
+                                if(n <= 0) {
+                                    break;
+                                }
+                                written += n;
+                            }
+                        }
+                    } else {
+                        written = writeFully(out, ByteBuffer.wrap((byte[]) e.getValue()));
+                    }
+                    if(written != lengths[i]) {
+                        throw new IOException("Tile " + TileKey.toString(e.getKey()) + " changed while writing");
+                    }
+                    i++;
+                }
+                out.force(false);
+            }
+            Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static long writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        long written = 0;
+        while(buffer.hasRemaining()) {
+            written += out.write(buffer);
+        }
+        return written;
+    }
+
+    private static int parse(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.nautilus.fxmap.tile.web;
+
+import com.nautilus.fxmap.tile.TileImages;
+import com.nautilus.fxmap.tile.TileProvider;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.URLStreamHandlerFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code fxtile://} URL scheme: {@code fxtile://<store>/<zoom>/<x>/<y>} is answered from the {@link TileProvider}
+ * registered under that store name, without any network. The WebView fetches through {@link URL}, so with
+ * {@link #template(String)} as the tile URL of the web map, e.g.
+ * {@link com.nautilus.fxmap.map.JSMapBridge#setTileUrl(String)}, the page and the native renderer can share one
+ * {@link com.nautilus.fxmap.tile.cache.TileCache} and the map works offline.
+ *
+ * The scheme is registered with {@link URL#setURLStreamHandlerFactory(URLStreamHandlerFactory)}, which works once
+ * per JVM; {@link #install()} can be called any number of times.
+ */
+public final class TileProtocol {
+
+    public static final String SCHEME = "fxtile";
+
+    private static final ConcurrentHashMap<String, TileProvider> stores = new ConcurrentHashMap<>();
+    private static final LongAdder served = new LongAdder();
+    private static final LongAdder notFound = new LongAdder();
+    private static boolean installed;
+    private static boolean available;
+
+    private TileProtocol() { }
+
+    /**
+     * Registers the scheme for the whole JVM.
+     * @return false if another URLStreamHandlerFactory was installed before, the scheme can't be used then
+     */
+    public static synchronized boolean install() {
+        if(!installed) {
+            installed = true;
+            try {
+                URL.setURLStreamHandlerFactory(new Factory());
+                available = true;
+            } catch (Error e) {
+                // the factory can only be set once per JVM
+                e.printStackTrace();
+                available = false;
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Installs the scheme if needed and serves the provider under the given name.
+     * @param name letters, digits, '.', '_' and '-'
+     * @return the tile URL template of the store, see {@link #template(String)}
+     */
+    public static String register(String name, TileProvider provider) {
+        if(!name.matches("[A-Za-z0-9._-]+")) {
+            throw new IllegalArgumentException("Invalid tile store name: " + name);
+        }
+        install();
+        stores.put(name, provider);
+        return template(name);
+    }
+
+    public static void unregister(String name) {
+        stores.remove(name);
+    }
+
+    /**
+     * @return the XYZ template of the store for OpenLayers, {@code fxtile://<name>/{z}/{x}/{y}}
+     */
+    public static String template(String name) {
+        return SCHEME + "://" + name + "/{z}/{x}/{y}";
+    }
+
+    public static TileProvider getStore(String name) {
+        return stores.get(name);
+    }
+
+    public static long getServedCount() {
+        return served.sum();
+    }
+
+    public static long getNotFoundCount() {
+        return notFound.sum();
+    }
+
+    private static final class Factory implements URLStreamHandlerFactory {
+        @Override
+        public URLStreamHandler createURLStreamHandler(String protocol) {
+            return SCHEME.equals(protocol) ? new Handler() : null;
+        }
+    }
+
+    private static final class Handler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL url) {
+            return new TileConnection(url);
+        }
+    }
+
+    private static final class TileConnection extends URLConnection {
+        private ByteBuffer tile;
+
+        TileConnection(URL url) {
+            super(url);
+            setUseCaches(false);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if(connected) {
+                return;
+            }
+            TileProvider store = stores.get(url.getHost());
+            String[] path = url.getPath().split("/");
+            // path is /z/x/y, a file extension on y is allowed
+            if(store == null || path.length != 4) {
+                notFound.increment();
+                throw new FileNotFoundException(url.toString());
+            }
+            try {
+                int zoom = Integer.parseInt(path[1]);
+                int x = Integer.parseInt(path[2]);
+                int dot = path[3].indexOf('.');
+                int y = Integer.parseInt(dot < 0 ? path[3] : path[3].substring(0, dot));
+                if(zoom >= store.getMinZoom() && zoom <= store.getMaxZoom() && x >= 0 && y >= 0
+                        && x < (1 << zoom) && y < (1 << zoom)) {
+                    tile = store.getTile(zoom, x, y);
+                }
+            } catch (IllegalArgumentException e) {
+                // a malformed number, or a zoom the tile key can't hold
+                tile = null;
+            }
+            if(tile == null) {
+                notFound.increment();
+                throw new FileNotFoundException(url.toString());
+            }
+            served.increment();
+            connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            return TileImages.asInputStream(tile);
+        }
+
+        @Override
+        public String getContentType() {
+            try {
+                connect();
+            } catch (IOException e) {
+                return null;
+            }
+            return TileImages.contentType(tile);
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            try {
+                connect();
+            } catch (IOException e) {
+                return -1;
+            }
+            return tile.remaining();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            if("content-type".equalsIgnoreCase(name)) {
+                return getContentType();
+            }
+            if("content-length".equalsIgnoreCase(name)) {
+                long length = getContentLengthLong();
+                return length < 0 ? null : Long.toString(length);
+            }
+            return null;
+        }
+    }
+}
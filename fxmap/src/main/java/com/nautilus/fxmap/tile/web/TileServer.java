@@ -0,0 +1,248 @@
+package com.nautilus.fxmap.tile.web;
+
+import com.nautilus.fxmap.tile.TileImages;
+import com.nautilus.fxmap.tile.TileLoader;
+import com.nautilus.fxmap.tile.TileProvider;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Local HTTP server for XYZ tiles from a {@link TileProvider}, e.g. a tile directory or a
+ * {@link com.nautilus.fxmap.tile.impl.TileArchive}, so the web map works without internet and perf tests get the
+ * same tiles every run. Tiles are served at {@code /<zoom>/<x>/<y>} (an extension on y is ignored) with
+ * Cache-Control and an ETag, a request with a matching If-None-Match gets 304.
+ *
+ * Requests run on a bounded pool; when the pool and its queue are full the accepting thread handles the request
+ * itself, which slows accepting down instead of dropping connections.
+ *
+ * The JDK server writes headers and body separately, so with Nagle's algorithm on a keep-alive client waits for
+ * the delayed ACK (~40ms) on every tile. {@link #enableNoDelay()} turns it off, for every JDK HTTP server of the JVM.
+ */
+public class TileServer {
+
+    private static final String NO_DELAY = "sun.net.httpserver.nodelay";
+
+    private final TileProvider provider;
+    private final int threads;
+    private long maxAgeSeconds = 24 * 60 * 60;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private int lastPort;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder served = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+
+    /**
+     * Sets the JVM-wide {@code sun.net.httpserver.nodelay} property unless it is set already. It affects every
+     * {@code com.sun.net.httpserver} server of the application, and it is read once, when the first of them is
+     * created, so call this before that.
+     */
+    public static void enableNoDelay() {
+        if(System.getProperty(NO_DELAY) == null) {
+            System.setProperty(NO_DELAY, "true");
+        }
+    }
+
+    public TileServer(TileProvider provider) {
+        this(provider, Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    public TileServer(TileProvider provider, int threads) {
+        this.provider = provider;
+        this.threads = threads;
+    }
+
+    /**
+     * Starts on the loopback interface.
+     * @param port 0 to pick a free port
+     */
+    public synchronized void start(int port) throws IOException {
+        if(server != null) {
+            return;
+        }
+        HttpServer s = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(16 * threads), TileLoader.daemonThreadFactory("tile-server"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        s.createContext("/", this::handle);
+        s.setExecutor(pool);
+        s.start();
+        server = s;
+        executor = pool;
+        lastPort = s.getAddress().getPort();
+    }
+
+    public void start() throws IOException {
+        start(0);
+    }
+
+    public synchronized void stop() {
+        if(server == null) {
+            return;
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * Starts again after {@link #stop()}, on the same port if it is still free, so the URL the page knows stays valid.
+     * @return true if the port changed
+     */
+    public synchronized boolean restart() throws IOException {
+        if(server != null) {
+            return false;
+        }
+        int port = lastPort;
+        try {
+            start(port);
+        } catch (IOException e) {
+            start(0);
+        }
+        return lastPort != port;
+    }
+
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    /**
+     * @return the port the server listens on, -1 if it is not running
+     */
+    public synchronized int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    /**
+     * @return the XYZ template for OpenLayers, see {@link com.nautilus.fxmap.map.JSMapBridge#setTileUrl(String)}
+     */
+    public String getUrlTemplate() {
+        return "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + getPort() + "/{z}/{x}/{y}";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try {
+            String method = exchange.getRequestMethod();
+            boolean head = "HEAD".equals(method);
+            if(!head && !"GET".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            ByteBuffer tile = lookup(exchange.getRequestURI().getPath());
+            if(tile == null) {
+                notFound.increment();
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            String etag = etag(tile);
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", etag);
+            headers.set("Cache-Control", "public, max-age=" + maxAgeSeconds);
+            headers.set("Access-Control-Allow-Origin", "*");
+            if(etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.increment();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            headers.set("Content-Type", TileImages.contentType(tile));
+            if(head) {
+                headers.set("Content-Length", Integer.toString(tile.remaining()));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, tile.remaining());
+            try (OutputStream out = exchange.getResponseBody()) {
+                WritableByteChannel channel = Channels.newChannel(out);
+                ByteBuffer body = tile.duplicate();
+                while(body.hasRemaining()) {
+                    channel.write(body);
+                }
+            }
+            served.increment();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private ByteBuffer lookup(String path) throws IOException {
+        String[] parts = path.split("/");
+        if(parts.length != 4) {
+            return null;
+        }
+        try {
+            int zoom = Integer.parseInt(parts[1]);
+            int x = Integer.parseInt(parts[2]);
+            int dot = parts[3].indexOf('.');
+            int y = Integer.parseInt(dot < 0 ? parts[3] : parts[3].substring(0, dot));
+            if(zoom < provider.getMinZoom() || zoom > provider.getMaxZoom() || x < 0 || y < 0
+                    || x >= (1 << zoom) || y >= (1 << zoom)) {
+                return null;
+            }
+            return provider.getTile(zoom, x, y);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String etag(ByteBuffer tile) {
+        CRC32 crc = new CRC32();
+        crc.update(tile.duplicate());
+        return "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(tile.remaining()) + "\"";
+    }
+
+    public TileProvider getProvider() {
+        return provider;
+    }
+
+    public long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    public void setMaxAgeSeconds(long maxAgeSeconds) {
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getServedCount() {
+        return served.sum();
+    }
+
+    public long getNotModifiedCount() {
+        return notModified.sum();
+    }
+
+    public long getNotFoundCount() {
+        return notFound.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "TileServer: port = " + getPort() + ", requests = " + getRequestCount() + ", served = "
+                + getServedCount() + ", not modified = " + getNotModifiedCount() + ", not found = " + getNotFoundCount();
+    }
+}
@@ -0,0 +1,274 @@
+package com.nautilus.fxmap.view;
+
+/**
+ * Collects the pixel areas of a canvas that changed since the last repaint, e.g. the old and new bounds of moved
+ * vehicles, as a few rectangles. A rectangle is merged into an existing one when their union isn't much bigger than
+ * both together; when all {@link #getMaxRectangles()} slots are taken it is merged into the one whose union with it
+ * adds the least area. Once the rectangles cover more than {@link #setFullRepaintFraction(double) a fraction} of the
+ * canvas the tracker reports {@link #isFull() full}: repainting everything is cheaper then.
+ *
+ * Rectangles are snapped outward to whole pixels plus a padding for antialiased edges. Must be used on the FX thread.
+ */
+public class DirtyRegionTracker {
+
+    private final int maxRectangles;
+    // minX, minY, maxX, maxY per rectangle
+    private final double[] rects;
+    private int count;
+    private boolean full;
+
+    private double width;
+    private double height;
+    private double padding = 1.0;
+    private double mergeFactor = 1.3;
+    private double fullRepaintFraction = 0.5;
+
+    private double repaintedPixels;
+    private double canvasPixels;
+    private double lastFraction;
+    private long repaintCount;
+
+    public DirtyRegionTracker() {
+        this(256);
+    }
+
+    public DirtyRegionTracker(int maxRectangles) {
+        this.maxRectangles = maxRectangles;
+        this.rects = new double[maxRectangles * 4];
+    }
+
+    /**
+     * @param width size of the canvas, rectangles are clipped to it
+     */
+    public void setSize(double width, double height) {
+        if(width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            markFull();
+        }
+    }
+
+    /**
+     * Marks a changed area.
+     */
+    public void add(double x, double y, double w, double h) {
+        if(full || w <= 0 || h <= 0) {
+            return;
+        }
+        double minX = Math.max(0, Math.floor(x - padding));
+        double minY = Math.max(0, Math.floor(y - padding));
+        double maxX = Math.min(width, Math.ceil(x + w + padding));
+        double maxY = Math.min(height, Math.ceil(y + h + padding));
+        if(maxX <= minX || maxY <= minY) {
+            return;
+        }
+        insert(minX, minY, maxX, maxY);
+        if(getArea() > fullRepaintFraction * width * height) {
+            markFull();
+        }
+    }
+
+    /**
+     * Marks an object that moved or changed its size: the old bounds have to be cleared, the new ones painted.
+     */
+    public void move(double oldX, double oldY, double oldW, double oldH, double x, double y, double w, double h) {
+        if(oldX <= x + w && x <= oldX + oldW && oldY <= y + h && y <= oldY + oldH) {
+            // overlapping, e.g. a small step: one rectangle over both
+            double minX = Math.min(oldX, x);
+            double minY = Math.min(oldY, y);
+            add(minX, minY, Math.max(oldX + oldW, x + w) - minX, Math.max(oldY + oldH, y + h) - minY);
+        } else {
+            add(oldX, oldY, oldW, oldH);
+            add(x, y, w, h);
+        }
+    }
+
+    /**
+     * Everything has to be repainted, e.g. after a resize.
+     */
+    public void markFull() {
+        full = true;
+        count = 0;
+    }
+
+    private void insert(double minX, double minY, double maxX, double maxY) {
+        // merging may make the union overlap others, so keep merging until it stands alone
+        boolean merged = true;
+        while(merged) {
+            merged = false;
+            for(int i = 0; i < count; i++) {
+                int o = i * 4;
+                double uMinX = Math.min(minX, rects[o]);
+                double uMinY = Math.min(minY, rects[o + 1]);
+                double uMaxX = Math.max(maxX, rects[o + 2]);
+                double uMaxY = Math.max(maxY, rects[o + 3]);
+                double union = (uMaxX - uMinX) * (uMaxY - uMinY);
+                double separate = (maxX - minX) * (maxY - minY) + area(i);
+                if(union <= separate * mergeFactor) {
+                    minX = uMinX;
+                    minY = uMinY;
+                    maxX = uMaxX;
+                    maxY = uMaxY;
+                    removeAt(i);
+                    merged = true;
+                    break;
+                }
+            }
+        }
+        if(count == maxRectangles) {
+            // no slot left: grow the rectangle whose union with this one adds the least area
+            int best = 0;
+            double bestCost = Double.MAX_VALUE;
+            for(int i = 0; i < count; i++) {
+                int o = i * 4;
+                double cost = (Math.max(maxX, rects[o + 2]) - Math.min(minX, rects[o]))
+                        * (Math.max(maxY, rects[o + 3]) - Math.min(minY, rects[o + 1])) - area(i);
+                if(cost < bestCost) {
+                    bestCost = cost;
+                    best = i;
+                }
+            }
+            int o = best * 4;
+            double uMinX = Math.min(minX, rects[o]);
+            double uMinY = Math.min(minY, rects[o + 1]);
+            double uMaxX = Math.max(maxX, rects[o + 2]);
+            double uMaxY = Math.max(maxY, rects[o + 3]);
+            removeAt(best);
+            insert(uMinX, uMinY, uMaxX, uMaxY);
+            return;
+        }
+        int o = count * 4;
+        rects[o] = minX;
+        rects[o + 1] = minY;
+        rects[o + 2] = maxX;
+        rects[o + 3] = maxY;
+        count++;
+    }
+
+    private void removeAt(int i) {
+        count--;
+        if(i != count) {
+            System.arraycopy(rects, count * 4, rects, i * 4, 4);
+        }
+    }
+
+    private double area(int i) {
+        int o = i * 4;
+        return (rects[o + 2] - rects[o]) * (rects[o + 3] - rects[o + 1]);
+    }
+
+    /**
+     * @return pixels covered by the rectangles; they don't overlap much after merging, overlaps are counted twice
+     */
+    public double getArea() {
+        if(full) {
+            return width * height;
+        }
+        double area = 0;
+        for(int i = 0; i < count; i++) {
+            area += area(i);
+        }
+        return area;
+    }
+
+    /**
+     * Records a repaint for the metric and starts collecting the next frame.
+     */
+    public void repainted() {
+        double canvas = width * height;
+        if(canvas <= 0) {
+            clear();
+            return;
+        }
+        double area = Math.min(canvas, getArea());
+        repaintedPixels += area;
+        canvasPixels += canvas;
+        lastFraction = area / canvas;
+        repaintCount++;
+        clear();
+    }
+
+    public void clear() {
+        count = 0;
+        full = false;
+    }
+
+    public boolean isEmpty() {
+        return !full && count == 0;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getX(int i) {
+        return rects[i * 4];
+    }
+
+    public double getY(int i) {
+        return rects[i * 4 + 1];
+    }
+
+    public double getWidth(int i) {
+        return rects[i * 4 + 2] - rects[i * 4];
+    }
+
+    public double getHeight(int i) {
+        return rects[i * 4 + 3] - rects[i * 4 + 1];
+    }
+
+    public int getMaxRectangles() {
+        return maxRectangles;
+    }
+
+    public double getPadding() {
+        return padding;
+    }
+
+    public void setPadding(double padding) {
+        this.padding = padding;
+    }
+
+    /**
+     * @param fraction of the canvas above which the tracker gives up and reports {@link #isFull() full}
+     */
+    public void setFullRepaintFraction(double fraction) {
+        this.fullRepaintFraction = fraction;
+    }
+
+    public double getFullRepaintFraction() {
+        return fullRepaintFraction;
+    }
+
+    /**
+     * @return repainted pixels over canvas pixels, for all repaints since the last reset; 1 means full repaints
+     */
+    public double getRepaintedPixelFraction() {
+        return canvasPixels == 0 ? 0.0 : repaintedPixels / canvasPixels;
+    }
+
+    public double getLastRepaintedPixelFraction() {
+        return lastFraction;
+    }
+
+    public long getRepaintCount() {
+        return repaintCount;
+    }
+
+    public void resetStats() {
+        repaintedPixels = 0;
+        canvasPixels = 0;
+        lastFraction = 0;
+        repaintCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "DirtyRegionTracker: rectangles = " + count + (full ? " (full)" : "") + ", repaints = " + repaintCount
+                + ", repainted pixel fraction = " + String.format("%.3f", getRepaintedPixelFraction());
+    }
+}
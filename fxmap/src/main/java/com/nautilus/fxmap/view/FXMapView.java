@@ -3,17 +3,35 @@ package com.nautilus.fxmap.view;
 import com.nautilus.fxmap.geo.GeoBoundary;
 import com.nautilus.fxmap.geo.MapProjection;
 import com.nautilus.fxmap.geo.MapSource;
+import com.nautilus.fxmap.geo.impl.WebMercatorProjection;
+import com.nautilus.fxmap.layer.MovingObjectLayer;
+import com.nautilus.fxmap.layer.PositionFeed;
+import com.nautilus.fxmap.map.JSMapBridge;
+import com.nautilus.fxmap.tile.TileLoader;
+import com.nautilus.fxmap.tile.TilePrefetcher;
+import com.nautilus.fxmap.tile.TileProvider;
+import com.nautilus.fxmap.tile.TileRange;
+import com.nautilus.fxmap.tile.TileRenderer;
+import com.nautilus.fxmap.tile.web.TileServer;
 import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.geometry.Point2D;
+import javafx.scene.Scene;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.ContextMenu;
+import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
 import javafx.scene.web.WebView;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class FXMapView extends Pane implements MapProjection.MapBoundChangeListener {
 
@@ -31,8 +49,56 @@ public abstract class FXMapView extends Pane implements MapProjection.MapBoundCh
 
     // For webview
     protected WebView webView;
+    protected WebMapPreloader webMapPreloader;
+
+    // For the native map mode, draws the tiles onto mapCanvas instead of a WebView
+    protected TileRenderer tileRenderer;
+    protected TileLoader tileLoader;
+    protected TilePrefetcher tilePrefetcher;
+    private TileLoader.TileLoadListener tileLoadListener;
+    // true if the renderer's cache was created by this view, it is closed on dispose then
+    private boolean ownsTileCache;
+    // Serves the tiles of the web map from a local provider, see loadLocalTileServerMap
+    protected TileServer tileServer;
+    // Cache, loader and tile server shared with other views, null if the view has its own
+    protected SharedMapContext sharedContext;
 
     protected MapProjection mapContent;
+    // Render scheduler: callers mark layers dirty, one pass per pulse redraws them, see requestRender
+    public static final int MAP_LAYER = 1;
+    public static final int OBJECT_LAYER = 2;
+    protected static final int SCREEN_SIZE = 4;
+    // the overlays only moved: blit the last frame and draw the exposed strips, see setPanBlitEnabled
+    protected static final int PAN_FRAME = 8;
+    // only the objects of movingObjectLayer changed
+    public static final int MOVING_OBJECTS = 16;
+    private final AtomicInteger dirty = new AtomicInteger();
+    private volatile int pendingWidth;
+    private volatile int pendingHeight;
+    private final LongAdder renderRequests = new LongAdder();
+    private long renderPasses;
+
+    private boolean panBlitEnabled;
+    private long panIdleNanos = 250_000_000L;
+    private WritableImage panFrame;
+    private boolean panFrameCaptured;
+    private boolean panPending;
+    // where the corners of the captured frame are on the map
+    private Point2D panFrameMin;
+    private Point2D panFrameMax;
+    private boolean fullRenderDeferred;
+    private long lastPanNanos;
+    private long panFrameCount;
+
+    // Areas of cvMovingObjects that changed since the last pass, see markObjectChanged
+    protected final DirtyRegionTracker movingObjectsDirty = new DirtyRegionTracker();
+
+    // Bulk moving objects, drawn onto their own canvas below cvMovingObjects, see getMovingObjectLayer
+    protected MovingObjectLayer movingObjectLayer;
+    protected Canvas cvObjectLayer;
+    // Updates from network threads, drained into movingObjectLayer once per pass, see getPositionFeed
+    protected PositionFeed positionFeed;
+
     protected AnimationTimer animation;
     protected boolean animationStarted = false;
     protected ContextMenu activeContextMenu = null;
@@ -42,16 +108,38 @@ public abstract class FXMapView extends Pane implements MapProjection.MapBoundCh
         cvMovingObjects = new Canvas();
         this.getChildren().add(mapCanvas);
         this.getChildren().add(cvMovingObjects);
+        sceneProperty().addListener((obs, oldScene, newScene) -> onSceneChanged(newScene));
+        animation = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                onPulse(now);
+            }
+        };
     }
 
     protected void loadWebViewMap() {
+        JSMapBridge bridge = mapContent.getJSMapBridge();
+        if(bridge != null) {
+            bridge.getStartupTimings().begin();
+        }
         Platform.runLater(() -> {
             if(webView != null) {
                 return;
             }
-            FXMapView.this.webView = new WebView();
+            WebView preloaded = webMapPreloader != null ? webMapPreloader.take(mapContent) : null;
+            if(preloaded != null) {
+                // the page is loaded or loading already and the bridge is attached to it
+                webView = preloaded;
+            } else {
+                webView = new WebView();
+            }
             FXMapView.this.getChildren().add(0, webView);
-            FXMapView.this.mapContent.initializeJSBridge(webView.getEngine());
+            if(preloaded == null) {
+                FXMapView.this.mapContent.initializeJSBridge(webView.getEngine());
+            }
+            if(getWidth() > 0 && getHeight() > 0) {
+                webView.setPrefSize(getWidth(), getHeight());
+            }
 
             FXMapView.this.widthProperty().addListener((obs, oldVal, newVal) -> {
                 webView.setPrefWidth(newVal.doubleValue());
@@ -65,6 +153,171 @@ public abstract class FXMapView extends Pane implements MapProjection.MapBoundCh
         });
     }
 
+    /**
+     * The next {@link #loadWebViewMap()} uses the WebView of the preloader instead of creating one, if it preloaded
+     * for this view's map content.
+     */
+    public void setWebMapPreloader(WebMapPreloader preloader) {
+        this.webMapPreloader = preloader;
+    }
+
+    /**
+     * Native map mode: tiles from the given provider are drawn onto {@link #mapCanvas} and no WebView is created.
+     * Tiles are loaded and decoded by a {@link TileLoader} in the background, the map is drawn again as they arrive.
+     * The map content has to be a {@link WebMercatorProjection} since there is no web map to report the bounds.
+     */
+    protected void loadNativeTileMap(TileProvider provider) {
+        checkNativeTileMap();
+        tileRenderer = new TileRenderer(provider);
+        ownsTileCache = tileRenderer.getCache() != provider;
+        tileLoader = new TileLoader(tileRenderer.getCache(), Math.max(2, Runtime.getRuntime().availableProcessors()));
+        tileLoadListener = keys -> requestRender(MAP_LAYER);
+        startNativeTileMap();
+    }
+
+    /**
+     * Native map mode with the tile cache and loader of a context shared with other views. Only tiles that land in
+     * this view's viewport make it render again.
+     */
+    protected void loadNativeTileMap(SharedMapContext context) {
+        checkNativeTileMap();
+        attachSharedContext(context);
+        tileRenderer = new TileRenderer(context.getCache());
+        tileLoader = context.getLoader();
+        tileLoadListener = this::onSharedTilesLoaded;
+        startNativeTileMap();
+    }
+
+    private void checkNativeTileMap() {
+        if(!(mapContent instanceof WebMercatorProjection)) {
+            throw new IllegalStateException("Native map mode needs a WebMercatorProjection, got " + mapContent);
+        }
+        if(webView != null) {
+            throw new IllegalStateException("Web map is already loaded");
+        }
+    }
+
+    private void startNativeTileMap() {
+        tileLoader.addListener(tileLoadListener);
+        tileRenderer.setLoader(tileLoader);
+        tilePrefetcher = new TilePrefetcher(tileLoader, tileRenderer.getCache().getMinZoom(),
+                tileRenderer.getCache().getMaxZoom());
+        mapContent.switchMapSource(MapSource.NATIVE);
+        requestRender(MAP_LAYER);
+    }
+
+    private void onSharedTilesLoaded(long[] keys) {
+        TileRange range = TileRange.of(mapContent.getViewport(), tileRenderer.getCache().getMinZoom(),
+                tileRenderer.getCache().getMaxZoom());
+        for(long key: keys) {
+            if(range.contains(key)) {
+                requestRender(MAP_LAYER);
+                return;
+            }
+        }
+    }
+
+    private void attachSharedContext(SharedMapContext context) {
+        if(sharedContext != null) {
+            throw new IllegalStateException("View is already attached to " + sharedContext);
+        }
+        context.acquire();
+        sharedContext = context;
+    }
+
+    /**
+     * Web map whose tiles come from the given provider through an embedded {@link TileServer} on localhost, e.g. for
+     * sites without internet. The server runs while the view is in a scene, see {@link #dispose()}. Call
+     * {@link TileServer#enableNoDelay()} at startup to avoid the delayed-ACK stall per tile; it is left to the
+     * application since it changes every JDK HTTP server of the JVM.
+     */
+    protected void loadLocalTileServerMap(TileProvider provider) throws IOException {
+        JSMapBridge bridge = checkLocalTileServerMap();
+        tileServer = new TileServer(provider);
+        tileServer.start();
+        // queued until the page is loaded
+        bridge.setTileUrl(tileServer.getUrlTemplate());
+        loadWebViewMap();
+    }
+
+    /**
+     * Web map whose tiles come from the local server of a context shared with other views, so all panes fetch
+     * through one server and one tile cache. The server runs until the last view releases the context.
+     */
+    protected void loadLocalTileServerMap(SharedMapContext context) throws IOException {
+        JSMapBridge bridge = checkLocalTileServerMap();
+        attachSharedContext(context);
+        bridge.setTileUrl(context.getTileServer().getUrlTemplate());
+        loadWebViewMap();
+    }
+
+    private JSMapBridge checkLocalTileServerMap() {
+        JSMapBridge bridge = mapContent.getJSMapBridge();
+        if(bridge == null) {
+            throw new IllegalStateException("Local tile server needs a web map, got " + mapContent);
+        }
+        if(tileServer != null) {
+            throw new IllegalStateException("Local tile server is already running");
+        }
+        return bridge;
+    }
+
+    protected void onSceneChanged(Scene scene) {
+        if(tileServer == null) {
+            return;
+        }
+        if(scene == null) {
+            tileServer.stop();
+            return;
+        }
+        try {
+            if(tileServer.restart()) {
+                mapContent.getJSMapBridge().setTileUrl(tileServer.getUrlTemplate());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops the background work of the view: the render timer, the local tile server, the tile loader and the tile
+     * cache the view created around its provider, which closes the provider too. A shared context is only released,
+     * its work goes on for the other views.
+     */
+    public void dispose() {
+        animation.stop();
+        animationStarted = false;
+        dirty.set(0);
+        if(tileServer != null) {
+            tileServer.stop();
+            tileServer = null;
+        }
+        if(sharedContext != null) {
+            if(tileLoader != null) {
+                tileLoader.removeListener(tileLoadListener);
+                tileLoader.removeViewport(tileRenderer);
+                tileLoader = null;
+            }
+            sharedContext.release();
+            sharedContext = null;
+        } else if(tileLoader != null) {
+            tileLoader.shutdown();
+            tileLoader = null;
+        }
+        tilePrefetcher = null;
+        if(tileRenderer != null) {
+            tileRenderer.setLoader(null);
+            if(ownsTileCache) {
+                ownsTileCache = false;
+                try {
+                    tileRenderer.getCache().close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
     public void initialize() {
         mapCanvas.widthProperty().bind(this.widthProperty());
         mapCanvas.heightProperty().bind(this.heightProperty());
@@ -80,6 +333,10 @@ public abstract class FXMapView extends Pane implements MapProjection.MapBoundCh
     }
 
     protected void onMouseDragging(MouseEvent evt) {
+        if(panBlitEnabled && tileRenderer == null && !panFrameCaptured) {
+            capturePanFrame();
+        }
+        lastPanNanos = System.nanoTime();
         double xOffset = lastMouseXPos - evt.getSceneX();
         double yOffset = lastMouseYPos - evt.getSceneY();
         lastMouseXPos = evt.getSceneX();
@@ -90,14 +347,38 @@ public abstract class FXMapView extends Pane implements MapProjection.MapBoundCh
         mapCanvas.setTranslateY(translateY + (-1 * yOffset));
         cvMovingObjects.setTranslateX(translateX + (-1 * xOffset));
         cvMovingObjects.setTranslateY(translateY + (-1 * yOffset));
+
+        if(tilePrefetcher != null) {
+            tilePrefetcher.onPan(xOffset, yOffset, System.nanoTime());
+            tilePrefetcher.prefetch(mapContent.getViewport(), -cvMovingObjects.getTranslateX(),
+                    -cvMovingObjects.getTranslateY());
+        }
     }
 
     protected void onMouseDragged(double fromX, double fromY, double toX, double toY) {
+        if(panFrameCaptured) {
+            // Where the frame goes once the new bounds arrive; until then it stays where the drag left it
+            panFrameMin = mapContent.xyToLocation(0.0, 0.0);
+            panFrameMax = mapContent.xyToLocation(cvMovingObjects.getWidth(), cvMovingObjects.getHeight());
+            panPending = true;
+            GraphicsContext g = cvMovingObjects.getGraphicsContext2D();
+            g.clearRect(0, 0, cvMovingObjects.getWidth(), cvMovingObjects.getHeight());
+            g.drawImage(panFrame, toX, toY);
+        }
         mapCanvas.setTranslateX(0.0);
         mapCanvas.setTranslateY(0.0);
         cvMovingObjects.setTranslateX(0.0);
         cvMovingObjects.setTranslateY(0.0);
 
+        if(tileRenderer != null) {
+            if(tilePrefetcher != null) {
+                tilePrefetcher.onPanEnd();
+            }
+            // Without a web map the projection pans itself and notifies onMapBoundChange
+            mapContent.translateCenterInPixel(toX, toY);
+            return;
+        }
+
         // Get the current bounds
         GeoBoundary currentBounds = mapContent.getBounds();
 
@@ -136,14 +417,274 @@ public abstract class FXMapView extends Pane implements MapProjection.MapBoundCh
                 && evt.getY() > (mouseYPosOnClick - DRAGGING_OFFSET)) {
             previousMouseXPosOnClick = mouseXPosOnClick;
             previousMouseYPosOnClick = mouseYPosOnClick;
+            panFrameCaptured = false;
             return;
         }
         onMouseDragged(0.0, 0.0, cvMovingObjects.getTranslateX(), cvMovingObjects.getTranslateY());
+        panFrameCaptured = false;
+    }
+
+    private void capturePanFrame() {
+        final int w = (int) Math.ceil(cvMovingObjects.getWidth());
+        final int h = (int) Math.ceil(cvMovingObjects.getHeight());
+        if(w <= 0 || h <= 0) {
+            return;
+        }
+        if(panFrame == null || (int) panFrame.getWidth() != w || (int) panFrame.getHeight() != h) {
+            panFrame = new WritableImage(w, h);
+        }
+        SnapshotParameters params = new SnapshotParameters();
+        params.setFill(Color.TRANSPARENT);
+        cvMovingObjects.snapshot(params, panFrame);
+        panFrameCaptured = true;
+        panPending = false;
     }
 
     protected abstract void setExtent(GeoBoundary newBounds);
+
+    /**
+     * Draws the overlays. In native map mode {@link #mapCanvas} already holds the base map tiles when this is
+     * called, so implementations must draw over it without clearing it.
+     */
     protected abstract void render();
 
+    /**
+     * Draws the base map and the overlays right away. Prefer {@link #requestRender(int)}, which draws at most once
+     * per pulse however often it is called.
+     */
+    protected void renderMap() {
+        if(tileRenderer != null) {
+            tileRenderer.render(mapCanvas.getGraphicsContext2D(), mapContent.getViewport());
+            if(tilePrefetcher != null) {
+                tilePrefetcher.prefetch(mapContent.getViewport(), 0.0, 0.0);
+            }
+        }
+        render();
+    }
+
+    /**
+     * Marks layers dirty; they are drawn in one pass on the next pulse, together with everything else marked dirty
+     * until then. May be called from any thread.
+     * @param layers {@link #MAP_LAYER}, {@link #OBJECT_LAYER} and/or {@link #MOVING_OBJECTS}
+     */
+    public void requestRender(int layers) {
+        renderRequests.increment();
+        if(dirty.getAndAccumulate(layers, (d, l) -> d | l) != 0) {
+            // a pass is scheduled already
+            return;
+        }
+        if(Platform.isFxApplicationThread()) {
+            startAnimation();
+        } else {
+            Platform.runLater(this::startAnimation);
+        }
+    }
+
+    public void requestRender() {
+        requestRender(MAP_LAYER | OBJECT_LAYER);
+    }
+
+    private void startAnimation() {
+        animation.start();
+        animationStarted = true;
+    }
+
+    private void onPulse(long now) {
+        final int layers = dirty.getAndSet(0);
+        if(layers == 0) {
+            if(fullRenderDeferred && !panFrameCaptured && now - lastPanNanos >= panIdleNanos) {
+                fullRenderDeferred = false;
+                renderPasses++;
+                renderMap();
+                movingObjectsDirty.markFull();
+                movingObjectsDirty.repainted();
+            } else if(!fullRenderDeferred) {
+                // idle, the next request starts the timer again
+                animation.stop();
+                animationStarted = false;
+            }
+            return;
+        }
+        if((layers & SCREEN_SIZE) != 0) {
+            mapContent.setScreenSize(pendingWidth, pendingHeight);
+        }
+        renderPasses++;
+        if(positionFeed != null) {
+            positionFeed.drainTo(movingObjectLayer);
+        }
+        if(movingObjectLayer != null) {
+            // redraws only if the objects or the viewport changed
+            movingObjectLayer.render(cvObjectLayer.getGraphicsContext2D(), mapContent.getViewport());
+        }
+        // the layer has its own canvas, a publish in the same pulse must not turn the rest into a full pass
+        final int rest = layers & ~MOVING_OBJECTS;
+        if(rest == 0) {
+            return;
+        }
+        movingObjectsDirty.setSize(cvMovingObjects.getWidth(), cvMovingObjects.getHeight());
+        if(rest == PAN_FRAME && panPending && renderPanFrame()) {
+            // the objects were drawn again where the pan moved them, what was marked before is stale
+            movingObjectsDirty.clear();
+            fullRenderDeferred = true;
+            return;
+        }
+        if(rest == OBJECT_LAYER && tileRenderer == null
+                && !movingObjectsDirty.isEmpty() && !movingObjectsDirty.isFull()) {
+            renderDirtyRegions(movingObjectsDirty);
+            movingObjectsDirty.repainted();
+            return;
+        }
+        panPending = false;
+        fullRenderDeferred = false;
+        // render() may draw onto the tiles in native map mode, so any pass draws the base map first
+        renderMap();
+        movingObjectsDirty.markFull();
+        movingObjectsDirty.repainted();
+    }
+
+    /**
+     * Marks an object of {@link #cvMovingObjects} that moved or changed, by its old and new pixel bounds. Frames with
+     * only such changes clear and repaint just the merged dirty rectangles, see {@link DirtyRegionTracker}.
+     * Unlike {@link #requestRender(int)} it must be called on the FX thread, the render pass reads the rectangles.
+     */
+    public void markObjectChanged(double oldX, double oldY, double oldW, double oldH,
+                                  double x, double y, double w, double h) {
+        checkFxThread();
+        movingObjectsDirty.move(oldX, oldY, oldW, oldH, x, y, w, h);
+        requestRender(OBJECT_LAYER);
+    }
+
+    /**
+     * Marks an area of {@link #cvMovingObjects} to repaint, e.g. an object that appeared or was removed. Must be
+     * called on the FX thread.
+     */
+    public void markObjectRegion(double x, double y, double w, double h) {
+        checkFxThread();
+        movingObjectsDirty.add(x, y, w, h);
+        requestRender(OBJECT_LAYER);
+    }
+
+    private static void checkFxThread() {
+        if(!Platform.isFxApplicationThread()) {
+            throw new IllegalStateException("Not on the FX thread: " + Thread.currentThread().getName());
+        }
+    }
+
+    /**
+     * Clears the dirty rectangles and repaints them. By default {@link #render()} runs once, clipped to all of them;
+     * subclasses that can look their objects up by area may draw only what intersects the rectangles.
+     */
+    protected void renderDirtyRegions(DirtyRegionTracker regions) {
+        GraphicsContext g = cvMovingObjects.getGraphicsContext2D();
+        g.save();
+        g.beginPath();
+        for(int i = 0; i < regions.getCount(); i++) {
+            g.clearRect(regions.getX(i), regions.getY(i), regions.getWidth(i), regions.getHeight(i));
+            g.rect(regions.getX(i), regions.getY(i), regions.getWidth(i), regions.getHeight(i));
+        }
+        g.clip();
+        render();
+        g.restore();
+    }
+
+    /**
+     * @return the layer for large numbers of moving objects, created with its canvas on first use. Its writers
+     *         publish from any thread, each publish requests a {@link #MOVING_OBJECTS} pass that redraws only the
+     *         layer. Call it on the FX thread.
+     */
+    public MovingObjectLayer getMovingObjectLayer() {
+        if(movingObjectLayer == null) {
+            cvObjectLayer = new Canvas();
+            cvObjectLayer.setMouseTransparent(true);
+            cvObjectLayer.widthProperty().bind(this.widthProperty());
+            cvObjectLayer.heightProperty().bind(this.heightProperty());
+            cvObjectLayer.translateXProperty().bind(cvMovingObjects.translateXProperty());
+            cvObjectLayer.translateYProperty().bind(cvMovingObjects.translateYProperty());
+            this.getChildren().add(this.getChildren().indexOf(cvMovingObjects), cvObjectLayer);
+            movingObjectLayer = new MovingObjectLayer(1024, () -> requestRender(MOVING_OBJECTS));
+        }
+        return movingObjectLayer;
+    }
+
+    /**
+     * @return the feed position sources offer their updates to from any thread without locking; each pass drains
+     *         it into the {@link #getMovingObjectLayer() moving object layer}, the latest update per object only.
+     *         Created on first use with the layer, call it on the FX thread.
+     */
+    public PositionFeed getPositionFeed() {
+        if(positionFeed == null) {
+            getMovingObjectLayer();
+            positionFeed = new PositionFeed(1 << 16);
+            positionFeed.setOnData(() -> requestRender(MOVING_OBJECTS));
+        }
+        return positionFeed;
+    }
+
+    /**
+     * @return the dirty rectangles of {@link #cvMovingObjects} and the repainted-pixel fraction
+     */
+    public DirtyRegionTracker getMovingObjectsDirty() {
+        return movingObjectsDirty;
+    }
+
+    /**
+     * Draws the frame captured when the pan started at its new place and renders only the strips it doesn't cover.
+     * @return false if the frame doesn't fit anymore, e.g. the zoom changed, and everything has to be drawn
+     */
+    private boolean renderPanFrame() {
+        panPending = false;
+        final double w = cvMovingObjects.getWidth();
+        final double h = cvMovingObjects.getHeight();
+        Point2D min = mapContent.locationToXY(panFrameMin.getY(), panFrameMin.getX());
+        Point2D max = mapContent.locationToXY(panFrameMax.getY(), panFrameMax.getX());
+        if(Math.abs(max.getX() - min.getX() - w) > 0.5 || Math.abs(max.getY() - min.getY() - h) > 0.5
+                || (int) panFrame.getWidth() != (int) Math.ceil(w)
+                || (int) panFrame.getHeight() != (int) Math.ceil(h)) {
+            return false;
+        }
+        final double dx = Math.round(min.getX());
+        final double dy = Math.round(min.getY());
+        if(Math.abs(dx) >= w || Math.abs(dy) >= h) {
+            return false;
+        }
+        GraphicsContext g = cvMovingObjects.getGraphicsContext2D();
+        g.clearRect(0, 0, w, h);
+        g.drawImage(panFrame, dx, dy);
+        // the exposed area is L-shaped: a full height column and the rest of a row, either may be empty
+        final double columnX = dx > 0 ? 0 : w + dx;
+        final double rowY = dy > 0 ? 0 : h + dy;
+        renderPanStrips(columnX, 0, Math.abs(dx), h, Math.max(0, dx), rowY, w - Math.abs(dx), Math.abs(dy));
+        panFrameCount++;
+        return true;
+    }
+
+    /**
+     * Draws the overlays of the strips a pan exposed on {@link #cvMovingObjects}, a column and a row that don't
+     * overlap; a strip of zero width or height is empty. The rest of the canvas must stay untouched. By default
+     * {@link #render()} runs once, clipped to both strips; subclasses that can look their features up by area should
+     * draw only the ones in the strips, so a pan frame costs what is in the strips instead of everything.
+     */
+    protected void renderPanStrips(double columnX, double columnY, double columnW, double columnH,
+                                   double rowX, double rowY, double rowW, double rowH) {
+        final boolean column = columnW > 0 && columnH > 0;
+        final boolean row = rowW > 0 && rowH > 0;
+        if(!column && !row) {
+            return;
+        }
+        GraphicsContext g = cvMovingObjects.getGraphicsContext2D();
+        g.save();
+        g.beginPath();
+        if(column) {
+            g.rect(columnX, columnY, columnW, columnH);
+        }
+        if(row) {
+            g.rect(rowX, rowY, rowW, rowH);
+        }
+        g.clip();
+        render();
+        g.restore();
+    }
+
     @Override
     public void onMapBoundChange(GeoBoundary old, GeoBoundary bounds1) {
         Platform.runLater(() -> {
@@ -152,24 +693,78 @@ public abstract class FXMapView extends Pane implements MapProjection.MapBoundCh
                 mapViewEventHandlers.parallelStream().forEach(h -> h.onMapBoundChanged(mapContent.getZoomLevel()));
             }
         });
-        render();
+        requestRender(panPending ? PAN_FRAME : MAP_LAYER | OBJECT_LAYER);
     }
 
+    /**
+     * The new size goes to the projection with the next render pass, so a live resize updates it once per pulse.
+     */
     @Override
     public void resize(double w, double h) {
         super.resize(w, h);
-        mapContent.setScreenSize((int) w, (int)h);
-        render();
+        pendingWidth = (int) w;
+        pendingHeight = (int) h;
+        requestRender(SCREEN_SIZE | MAP_LAYER | OBJECT_LAYER);
     }
 
     public void zoomIn() {
+        if(tilePrefetcher != null) {
+            tilePrefetcher.onZoom(1);
+        }
         mapContent.zoomIn();
-        render();
+        requestRender();
     }
 
     public void zoomOut() {
+        if(tilePrefetcher != null) {
+            tilePrefetcher.onZoom(-1);
+        }
         mapContent.zoomOut();
-        render();
+        requestRender();
+    }
+
+    /**
+     * Panning mode for the web map: the overlay frame is captured when a drag starts and, once the map moved, drawn
+     * at the new offset with only the exposed strips rendered, see
+     * {@link #renderPanStrips(double, double, double, double, double, double, double, double)}.
+     * The full redraw follows when the map has been idle for {@link #setPanIdleMillis(long) a while}. Needs
+     * {@link #render()} to draw only onto {@link #cvMovingObjects}. Off by default.
+     */
+    public void setPanBlitEnabled(boolean enabled) {
+        this.panBlitEnabled = enabled;
+    }
+
+    public boolean isPanBlitEnabled() {
+        return panBlitEnabled;
+    }
+
+    public void setPanIdleMillis(long millis) {
+        this.panIdleNanos = millis * 1_000_000L;
+    }
+
+    public long getPanIdleMillis() {
+        return panIdleNanos / 1_000_000L;
+    }
+
+    /**
+     * @return render passes that only blitted the last frame and drew the exposed strips
+     */
+    public long getPanFrameCount() {
+        return panFrameCount;
+    }
+
+    /**
+     * @return calls of {@link #requestRender(int)}
+     */
+    public long getRenderRequestCount() {
+        return renderRequests.sum();
+    }
+
+    /**
+     * @return render passes that ran, at most one per pulse
+     */
+    public long getRenderCount() {
+        return renderPasses;
     }
 
     public void onSwitchMapSource(MapSource mapSource) {
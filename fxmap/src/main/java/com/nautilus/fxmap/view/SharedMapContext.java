@@ -0,0 +1,197 @@
+package com.nautilus.fxmap.view;
+
+import com.nautilus.fxmap.tile.TileLoader;
+import com.nautilus.fxmap.tile.TileProvider;
+import com.nautilus.fxmap.tile.cache.TileCache;
+import com.nautilus.fxmap.tile.web.TileServer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Map resources shared by several {@link FXMapView}s, e.g. the panes of a control room: one tile cache with its
+ * decoded images, one tile loader, one local tile server and any data the application registers, like overlay
+ * data or spatial indexes. Each view keeps only its own viewport, renderer and, for web maps, its WebView, so adding
+ * a pane doesn't add another copy of the tiles.
+ *
+ * Views {@link #acquire() acquire} the context when they attach and {@link #release() release} it in
+ * {@link FXMapView#dispose()}; when the last one is gone the loader and server are stopped and the cache is closed
+ * if the context created it, a cache passed in stays open. Shared resources are reference counted the same way. A
+ * closed context can't be used anymore. Thread safe.
+ */
+public class SharedMapContext {
+
+    private final TileCache cache;
+    // true if the context created the cache around a provider, only then it is closed with the last view
+    private final boolean ownsCache;
+    private final int loaderThreads;
+    private TileLoader loader;
+    private TileServer tileServer;
+    private int references;
+    private boolean closed;
+
+    private final Map<String, Resource> resources = new HashMap<>();
+
+    public SharedMapContext(TileProvider provider) {
+        this(provider instanceof TileCache ? (TileCache) provider : new TileCache(provider),
+                Math.max(2, Runtime.getRuntime().availableProcessors()), !(provider instanceof TileCache));
+    }
+
+    /**
+     * @param cache stays open when the context closes, the caller closes it
+     */
+    public SharedMapContext(TileCache cache, int loaderThreads) {
+        this(cache, loaderThreads, false);
+    }
+
+    private SharedMapContext(TileCache cache, int loaderThreads, boolean ownsCache) {
+        this.cache = cache;
+        this.loaderThreads = loaderThreads;
+        this.ownsCache = ownsCache;
+    }
+
+    public synchronized void acquire() {
+        checkOpen();
+        references++;
+    }
+
+    private void checkOpen() {
+        if(closed) {
+            throw new IllegalStateException("Shared map context is closed");
+        }
+    }
+
+    /**
+     * Releases one reference, the last one stops the shared work and closes the cache the context created.
+     */
+    public synchronized void release() {
+        if(references == 0) {
+            return;
+        }
+        if(--references > 0) {
+            return;
+        }
+        closed = true;
+        if(loader != null) {
+            loader.shutdown();
+            loader = null;
+        }
+        if(tileServer != null) {
+            tileServer.stop();
+            tileServer = null;
+        }
+        for(Resource r: resources.values()) {
+            close(r.value);
+        }
+        resources.clear();
+        if(ownsCache) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public TileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the loader all views request their tiles from, each with its own viewport, see
+     *         {@link TileLoader#updateViewport(Object, com.nautilus.fxmap.tile.TileRange, double, double, int)}
+     */
+    public synchronized TileLoader getLoader() {
+        checkOpen();
+        if(loader == null) {
+            loader = new TileLoader(cache, loaderThreads);
+        }
+        return loader;
+    }
+
+    /**
+     * @return the local server for the web maps, started on first use; it serves from the shared cache
+     */
+    public synchronized TileServer getTileServer() throws IOException {
+        checkOpen();
+        if(tileServer == null) {
+            TileServer server = new TileServer(cache);
+            server.start();
+            tileServer = server;
+        }
+        return tileServer;
+    }
+
+    /**
+     * Gets a shared resource, creating it with the first acquisition, e.g. the features of an overlay or a spatial
+     * index of the moving objects. Every acquisition needs a {@link #releaseResource(String)}.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T acquireResource(String key, Supplier<T> factory) {
+        checkOpen();
+        Resource r = resources.get(key);
+        if(r == null) {
+            r = new Resource(factory.get());
+            resources.put(key, r);
+        }
+        r.references++;
+        return (T) r.value;
+    }
+
+    /**
+     * Releases one acquisition; with the last one the resource is dropped and closed if it is
+     * {@link AutoCloseable}.
+     */
+    public synchronized void releaseResource(String key) {
+        Resource r = resources.get(key);
+        if(r == null) {
+            return;
+        }
+        if(--r.references == 0) {
+            resources.remove(key);
+            close(r.value);
+        }
+    }
+
+    private static void close(Object value) {
+        if(value instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) value).close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return views attached to the context
+     */
+    public synchronized int getReferenceCount() {
+        return references;
+    }
+
+    public synchronized int getResourceCount() {
+        return resources.size();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SharedMapContext: views = " + references + ", resources = " + resources.size() + ", " + cache
+                + (loader != null ? ", " + loader : "") + (tileServer != null ? ", " + tileServer : "");
+    }
+
+    private static final class Resource {
+        final Object value;
+        int references;
+
+        Resource(Object value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.nautilus.fxmap.view;
+
+import com.nautilus.fxmap.geo.MapProjection;
+import com.nautilus.fxmap.map.JSMapBridge;
+import com.nautilus.fxmap.map.StartupTimings;
+import javafx.application.Platform;
+import javafx.scene.web.WebView;
+
+/**
+ * Creates the WebView of a web map and starts loading the page before the view is shown, e.g. from
+ * {@code Application.init()}, so the engine, osm.html and ol.js load while the rest of the application starts.
+ * The view takes the preloaded WebView over in {@link FXMapView#loadWebViewMap()}, see
+ * {@link FXMapView#setWebMapPreloader(WebMapPreloader)}, together with everything the page has done until then.
+ */
+public class WebMapPreloader {
+
+    private final MapProjection mapContent;
+    private final double width;
+    private final double height;
+
+    // FX thread only
+    private WebView webView;
+    private boolean taken;
+
+    private WebMapPreloader(MapProjection mapContent, double width, double height) {
+        this.mapContent = mapContent;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Starts preloading; may be called from any thread once the FX toolkit runs.
+     * @param mapContent the projection the view will use, its bridge is attached to the preloaded page
+     * @param width expected size of the map, so the page lays out for it; 0 to leave it to the view
+     */
+    public static WebMapPreloader start(MapProjection mapContent, double width, double height) {
+        JSMapBridge bridge = mapContent.getJSMapBridge();
+        if(bridge == null) {
+            throw new IllegalArgumentException("Preloading needs a web map, got " + mapContent);
+        }
+        bridge.getStartupTimings().begin();
+        WebMapPreloader preloader = new WebMapPreloader(mapContent, width, height);
+        if(Platform.isFxApplicationThread()) {
+            preloader.create();
+        } else {
+            Platform.runLater(preloader::create);
+        }
+        return preloader;
+    }
+
+    private void create() {
+        if(taken || webView != null) {
+            return;
+        }
+        webView = new WebView();
+        if(width > 0 && height > 0) {
+            webView.resize(width, height);
+        }
+        mapContent.initializeJSBridge(webView.getEngine());
+    }
+
+    /**
+     * Hands the preloaded WebView over to a view, once. FX thread only.
+     * @return the WebView with the page attached to the projection, null if it was taken or is for another one
+     */
+    WebView take(MapProjection content) {
+        if(taken || content != mapContent) {
+            return null;
+        }
+        taken = true;
+        return webView;
+    }
+
+    public MapProjection getMapContent() {
+        return mapContent;
+    }
+
+    public StartupTimings getStartupTimings() {
+        return mapContent.getJSMapBridge().getStartupTimings();
+    }
+}